@@ -0,0 +1,106 @@
+package edu.ucsd.cse110.sharednotes.activity;
+
+import static org.junit.Assert.*;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.widget.EditText;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteActivityTest {
+    private static final int UPDATES = 20;
+
+    @Test
+    public void testRemoteUpdatesOnlyReplaceWhatChanged() {
+        var random = new Random(0);
+        var text = new StringBuilder();
+        while (text.length() < 200 * 1024) {
+            text.append("Agenda item ").append(random.nextInt(1000)).append(": discussed and agreed.\n");
+        }
+        var initial = text.toString();
+
+        // A remote edit every few seconds, each a few characters somewhere in the note.
+        var updates = new String[UPDATES];
+        var content = initial;
+        for (int i = 0; i < UPDATES; i++) {
+            var at = random.nextInt(content.length());
+            content = content.substring(0, at) + "edit " + i + content.substring(at);
+            updates[i] = content;
+        }
+
+        var instrumentation = InstrumentationRegistry.getInstrumentation();
+        var context = instrumentation.getTargetContext();
+        var nanos = new long[2];
+        instrumentation.runOnMainSync(() -> {
+            for (var patched : new boolean[]{false, true}) {
+                var view = new EditText(context);
+                view.setText(initial);
+                frame(view);
+                view.setSelection(1000, 1010);
+                var selected = view.getText().subSequence(1000, 1010).toString();
+
+                // How many times the text was changed, and how many characters that replaced.
+                var changes = new AtomicInteger();
+                var replaced = new AtomicInteger();
+                view.addTextChangedListener(new TextWatcher() {
+                    @Override
+                    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                        changes.incrementAndGet();
+                        replaced.addAndGet(count + after);
+                    }
+
+                    @Override
+                    public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+                    @Override
+                    public void afterTextChanged(Editable s) {}
+                });
+
+                for (int i = 0; i < UPDATES; i++) {
+                    replaced.set(0);
+                    var start = System.nanoTime();
+                    if (patched) NoteActivity.showContent(view, updates[i]);
+                    else view.setText(updates[i]);
+                    frame(view);
+                    nanos[patched ? 1 : 0] += System.nanoTime() - start;
+                    // Only the few characters the edit added, not the whole note.
+                    if (patched) assertEquals(("edit " + i).length(), replaced.get());
+                }
+                assertEquals(updates[UPDATES - 1], view.getText().toString());
+
+                if (patched) {
+                    // The selection stayed on the same text, wherever the edits went.
+                    var selection = view.getText()
+                        .subSequence(view.getSelectionStart(), view.getSelectionEnd()).toString();
+                    assertEquals(selected, selection);
+
+                    // Nothing new: the text isn't touched at all.
+                    changes.set(0);
+                    NoteActivity.showContent(view, updates[UPDATES - 1]);
+                    assertEquals(0, changes.get());
+                }
+            }
+        });
+
+        System.out.printf("200 KB note, %d remote updates: setText %.1f ms/frame, patched %.1f ms/frame%n",
+            UPDATES, nanos[0] / 1e6 / UPDATES, nanos[1] / 1e6 / UPDATES);
+    }
+
+    /** Do a frame's worth of work: measure and lay the view out, as a 1080 px wide screen would. */
+    private static void frame(View view) {
+        view.measure(
+            View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+}
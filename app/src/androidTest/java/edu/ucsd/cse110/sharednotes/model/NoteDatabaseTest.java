@@ -0,0 +1,570 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.paging.PagingSource;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kotlin.Result;
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.CoroutineContext;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlin.coroutines.intrinsics.IntrinsicsKt;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteDatabaseTest {
+    private NoteDatabase db;
+    private NoteDao dao;
+
+    @Before
+    public void setUp() {
+        var context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // Deliberately built like the real database: without allowMainThreadQueries().
+        db = Room.inMemoryDatabaseBuilder(context, NoteDatabase.class).build();
+        dao = db.getDao();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testMainThreadAccessIsRejected() {
+        var error = new AtomicReference<Throwable>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            try {
+                dao.exists("anything");
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+
+        assertTrue(error.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testInsertIfAbsentKeepsExistingNote() {
+        dao.upsert(new Note("Groceries", "eggs", 3));
+
+        assertEquals(-1, dao.insertIfAbsent(new Note("Groceries", "")));
+        assertNotEquals(-1, dao.insertIfAbsent(new Note("Chores", "")));
+
+        var groceries = dao.find("Groceries");
+        assertEquals("eggs", groceries.content);
+        assertEquals(3, groceries.version);
+        assertTrue(dao.exists("Chores"));
+    }
+
+    @Test
+    public void testSearchMatchesWordPrefixesAndRanksTitlesFirst() throws Exception {
+        dao.upsert(new Note("Groceries", "eggs, milk", 1));
+        dao.upsert(new Note("Chores", "buy groceries on the way home", 1));
+        dao.upsert(new Note("Reading", "eggshell by someone", 1));
+
+        assertEquals(List.of("Groceries", "Chores"), titlesOf(loadPage(dao.search("grocer"), 0, 20)));
+        assertEquals(List.of("Chores"), titlesOf(loadPage(dao.search("buy gro"), 0, 20)));
+
+        // The index follows updates and deletes through its triggers.
+        dao.upsert(new Note("Groceries", "nothing left", 2));
+        dao.upsert(new Note("Chores", "vacuum", 2));
+        assertEquals(List.of("Reading"), titlesOf(loadPage(dao.search("eggs"), 0, 20)));
+    }
+
+    @Test
+    public void testSearchTakesAnythingTyped() throws Exception {
+        dao.upsert(new Note("Quotes", "she said \"hi\" (twice) OR NOT", 1));
+
+        // Quotes, brackets and FTS operators are just text to search for.
+        for (var query : new String[]{"said \"hi", "\"", "(twice", "OR", "NOT said", "hi*", "-"}) {
+            loadPage(dao.search(query), 0, 20);
+        }
+        assertEquals(List.of("Quotes"), titlesOf(loadPage(dao.search("said \"hi"), 0, 20)));
+        assertEquals(List.of("Quotes"), titlesOf(loadPage(dao.search("(twice"), 0, 20)));
+    }
+
+    @Test
+    public void testSearchFindsOneNoteAmongMany() throws Exception {
+        var words = new String[]{"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf"};
+        db.runInTransaction(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                var content = words[i % words.length] + " " + words[(i / 7) % words.length] + " item " + i;
+                dao.upsert(new Note("Note " + i, content, 1));
+            }
+        });
+        dao.upsert(new Note("Needle", "a rare zebra", 1));
+
+        assertEquals(countRows("notes"), countRows("notes_fts"));
+        assertEquals(List.of("Needle"), titlesOf(loadPage(dao.search("zeb"), 0, 20)));
+    }
+
+    @Test
+    public void testListPreviewsAreCheaperThanWholeNotes() throws Exception {
+        var filler = "lorem ipsum dolor sit amet ".repeat(20);
+        int inserted = 0;
+        for (int size : new int[]{1_000, 10_000, 100_000}) {
+            int from = inserted;
+            db.runInTransaction(() -> {
+                for (int i = from; i < size; i++) {
+                    dao.upsert(new Note(String.format("Note %06d", i), i + " " + filler, 1));
+                }
+            });
+            inserted = size;
+
+            // Before: the list loaded every note, content and all.
+            var heapBefore = usedHeap();
+            var start = System.nanoTime();
+            var notes = loadWholeNotes();
+            var wholeMs = (System.nanoTime() - start) / 1e6;
+            var wholeBytes = usedHeap() - heapBefore;
+            assertEquals(size, notes.size());
+            notes = null;
+
+            // After: the list's paging source counts the notes, then loads its first pages.
+            heapBefore = usedHeap();
+            start = System.nanoTime();
+            var previews = loadPage(dao.getPreviews(), 0, 150);
+            var previewMs = (System.nanoTime() - start) / 1e6;
+            var previewBytes = usedHeap() - heapBefore;
+            assertEquals(150, previews.size());
+            assertEquals(String.format("Note %06d", 0), previews.get(0).title);
+            assertTrue(previews.get(0).preview.length() <= NotePreview.MAX_LENGTH);
+
+            System.out.printf("%d notes: whole list %.1f ms / %d KiB, first pages %.1f ms / %d KiB%n",
+                size, wholeMs, wholeBytes / 1024, previewMs, previewBytes / 1024);
+            if (size >= 10_000) assertTrue(previewBytes < wholeBytes);
+        }
+    }
+
+    @Test
+    public void testLongNotesAreStoredInSharedChunks() throws Exception {
+        var content = "lorem ipsum dolor sit amet, ".repeat(10_000) + "the end";
+        dao.upsert(new Note("Long", content, 1));
+        dao.upsert(new Note("Copy", content, 1));
+
+        var note = dao.find("Long");
+        assertEquals(content, note.content);
+        assertNotNull(note.chunks);
+        // Both notes share every chunk.
+        var chunks = NoteChunk.hashesOf(note.chunks).stream().distinct().count();
+        assertEquals(chunks, countRows("note_chunks"));
+
+        // The list still shows the start of the note, straight from its row.
+        var previews = loadPage(dao.getPreviews(), 0, 10);
+        assertEquals(List.of("Copy", "Long"), titlesOf(previews));
+        assertEquals(content.substring(0, NotePreview.MAX_LENGTH), previews.get(1).preview);
+
+        // Chunks go away once no note uses them, and not before.
+        dao.delete("Long");
+        assertEquals(chunks, countRows("note_chunks"));
+        dao.upsert(new Note("Copy", "short now", 2));
+        assertEquals(0, countRows("note_chunks"));
+        assertEquals("short now", dao.find("Copy").content);
+    }
+
+    @Test
+    public void testSmallEditsToLongNotesWriteLittle() {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var remote = new RemoteNoteSource(new NoteAPI("http://localhost/"), db.getOutboxDao(), scheduler);
+        var repo = new NoteRepository(dao, db.getCrdtDao(), remote, new NoteCache(1024 * 1024),
+            new HybridClock(1, System::currentTimeMillis), Runnable::run);
+
+        var random = new Random(0);
+        var text = new StringBuilder();
+        while (text.length() < 1024 * 1024) text.append(Long.toString(random.nextLong(), 36)).append(' ');
+        var content = text.toString();
+        repo.upsertLocal(new Note("Long", content));
+
+        // Saved the way the app saves: chunks, the note's row, its history, and its edit history.
+        int edits = 50;
+        long bytesWritten = 0;
+        long crdtBytesWritten = 0;
+        for (int i = 0; i < edits; i++) {
+            var at = random.nextInt(content.length());
+            content = content.substring(0, at) + "edit " + i + content.substring(at);
+
+            var before = rows();
+            repo.upsertLocal(new Note("Long", content));
+            for (var row : rows().entrySet()) {
+                if (row.getValue().equals(before.get(row.getKey()))) continue;
+                bytesWritten += row.getValue().length();
+                if (row.getKey().startsWith("note_crdt")) crdtBytesWritten += row.getValue().length();
+            }
+        }
+        scheduler.shutdownNow();
+
+        assertEquals(content, dao.find("Long").content);
+        assertTrue(bytesWritten / edits < content.length() / 10);
+        // The edit history grows with the edits, not with the note.
+        assertTrue(crdtBytesWritten / edits < 1024);
+    }
+
+    @Test
+    public void testNotesFarInTheFutureDontOverwriteLaterEdits() throws InterruptedException {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var remote = new RemoteNoteSource(new NoteAPI("http://localhost/"), db.getOutboxDao(), scheduler);
+        var repo = new NoteRepository(dao, db.getCrdtDao(), remote, new NoteCache(1024 * 1024),
+            new HybridClock(1, System::currentTimeMillis), Runnable::run);
+        repo.upsertLocal(new Note("Plans", "ours"));
+
+        // A device whose clock is years ahead, or a bogus version.
+        var future = new Note("Plans", "from the future", Long.MAX_VALUE, 2);
+        repo.upsertLocal(future, false);
+        repo.upsertLocal(new Note("Plans", "ours, edited"));
+        // The next poll brings the same note again.
+        repo.upsertLocal(new Note("Plans", "from the future", Long.MAX_VALUE, 2), false);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        var note = dao.find("Plans");
+        assertEquals("ours, edited", note.content);
+        assertTrue(note.version < Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testMergesNewerThanTheirEditsAreUploaded() throws InterruptedException {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var remote = new RemoteNoteSource(new NoteAPI("http://localhost/"), db.getOutboxDao(), scheduler);
+        var repo = new NoteRepository(dao, db.getCrdtDao(), remote, new NoteCache(1024 * 1024),
+            new HybridClock(1, System::currentTimeMillis), Runnable::run);
+        repo.upsertLocal(new Note("Shopping", ""));
+        var ours = dao.find("Shopping");
+
+        // Edits saved before ours: the merged text is newer than what either of us uploaded.
+        var theirs = TextCrdt.fromText(2, "").edit(new TextPatch(0, 0, "milk"));
+        repo.mergeLocal("Shopping", 1, 2, theirs);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        var merged = dao.find("Shopping");
+        assertEquals("milk", merged.content);
+        assertTrue(merged.isNewerThan(ours));
+        var queued = db.getOutboxDao().getDue(Long.MAX_VALUE, 10);
+        assertEquals(1, queued.size());
+        assertEquals("milk", queued.get(0).content);
+        assertEquals(merged.version, queued.get(0).version);
+    }
+
+    @Test
+    public void testHistoryIsSmallAndQuickToRestore() {
+        var random = new Random(0);
+        var text = new StringBuilder();
+        while (text.length() < 20 * 1024) text.append(Long.toString(random.nextLong(), 36)).append(' ');
+        var content = text.toString();
+
+        // Just under the point where the history is compacted, all within the last day.
+        var saves = NoteVersion.MAX_VERSIONS;
+        var contents = new ArrayList<String>();
+        long millis = System.currentTimeMillis() - saves * 1000L;
+        for (int i = 0; i < saves; i++) {
+            var at = random.nextInt(content.length());
+            content = content.substring(0, at) + "edit " + i + content.substring(at);
+            contents.add(content);
+            dao.upsert(new Note("History", content, (millis + i * 1000L) << 16, 1));
+        }
+
+        var history = dao.getHistory("History");
+        assertEquals(saves - 1, history.size());
+        long bytes;
+        try (var cursor = db.query(new SimpleSQLiteQuery("SELECT SUM(IFNULL(length(content), 0) "
+                + "+ IFNULL(length(chunks), 0) + IFNULL(length(patchInsert), 0) + 24) FROM note_versions"))) {
+            cursor.moveToFirst();
+            bytes = cursor.getLong(0);
+        }
+
+        // Every version comes back as it was saved.
+        for (var version : history) {
+            assertEquals(contents.get((int) version.seq - 1), dao.getVersion("History", version.seq).content);
+        }
+
+        var seq = history.get(0).seq - 100;
+        var start = System.nanoTime();
+        var restored = dao.getVersion("History", seq);
+        var restoreNanos = System.nanoTime() - start;
+        assertEquals(contents.get((int) seq - 1), restored.content);
+
+        System.out.printf("20 KiB note, %d versions: ~%d bytes/version (whole: %d KiB), "
+                + "version N-100 in %.2f ms%n",
+            history.size(), bytes / history.size(), content.length() / 1024, restoreNanos / 1e6);
+        assertTrue(bytes / history.size() < content.length() / 10);
+    }
+
+    @Test
+    public void testOldHistoryIsThinnedOut() {
+        // A save every half hour for a day and a half, starting two days ago.
+        long hour = NoteVersion.BUCKET_MS;
+        long first = (System.currentTimeMillis() / hour - 48) * hour;
+        var contents = new HashMap<Long, String>();
+        var content = "";
+        for (int i = 0; i < 36 * 60 / 30; i++) {
+            long millis = first + i * 30 * 60 * 1000L;
+            content += "line " + i + "\n";
+            contents.put(millis, content);
+            dao.upsert(new Note("Thinned", content, millis << 16, 1));
+        }
+        var now = first + 48 * hour;
+        dao.compactHistory("Thinned", now);
+
+        var history = dao.getHistory("Thinned");
+        var seen = new HashMap<Long, Integer>();
+        for (var version : history) {
+            var millis = HybridClock.millisOf(version.version);
+            // Older versions: at most one an hour. Every kept version still restores exactly.
+            if (millis < now - NoteVersion.DETAIL_MS) seen.merge(millis / hour, 1, Integer::sum);
+            assertEquals(contents.get(millis), dao.getVersion("Thinned", version.seq).content);
+        }
+        for (var count : seen.values()) assertEquals(1, (int) count);
+        assertTrue(history.size() < contents.size() - 1);
+
+        // History goes with the note.
+        dao.delete("Thinned");
+        assertEquals(0, countRows("note_versions"));
+    }
+
+    @Test
+    public void testChangedSinceFindsOnlyNewSaves() {
+        db.runInTransaction(() -> {
+            for (int i = 0; i < 10_000; i++) dao.upsert(new Note("Note " + i, "content " + i, 1));
+        });
+        var cursor = dao.getChangedSince(0, Integer.MAX_VALUE).stream()
+            .mapToLong(note -> note.seq).max().getAsLong();
+
+        dao.upsert(new Note("Note 5", "edited", 2));
+        dao.upsert(new Note("Note 7", "edited", 2));
+        dao.upsert(new Note("Note 5", "edited again", 3));
+        assertNotEquals(-1, dao.insertIfAbsent(new Note("Fresh", "")));
+
+        var start = System.nanoTime();
+        var changed = dao.getChangedSince(cursor, 100);
+        var changedMs = (System.nanoTime() - start) / 1e6;
+        // Each note once, in the order of its last save.
+        assertEquals(3, changed.size());
+        assertEquals("Note 7", changed.get(0).title);
+        assertEquals("edited again", changed.get(1).content);
+        assertEquals("Fresh", changed.get(2).title);
+
+        // Looked up in the index, not by scanning every note.
+        try (var plan = db.query(new SimpleSQLiteQuery(
+                "EXPLAIN QUERY PLAN SELECT * FROM notes WHERE seq > ? ORDER BY seq", new Object[]{cursor}))) {
+            var usesIndex = false;
+            while (plan.moveToNext()) {
+                usesIndex |= plan.getString(plan.getColumnIndexOrThrow("detail")).contains("index_notes_seq");
+            }
+            assertTrue(usesIndex);
+        }
+        System.out.printf("10k notes, 3 changed: found in %.2f ms%n", changedMs);
+
+        // Numbers of deleted notes are never handed out again.
+        var last = changed.get(2).seq;
+        dao.delete("Fresh");
+        dao.upsert(new Note("Fresher", "", 1));
+        assertTrue(dao.find("Fresher").seq > last);
+    }
+
+    @Test
+    public void testServerChangesMoveTheCursorWithThem() {
+        assertEquals(0, dao.getCursor(SyncCursor.SERVER));
+        dao.upsert(new Note("Mine", "newer", 5));
+
+        dao.upsertChanges(List.of(new Note("Mine", "older", 4), new Note("Theirs", "new", 3)), 42);
+
+        assertEquals(42, dao.getCursor(SyncCursor.SERVER));
+        assertEquals("newer", dao.find("Mine").content);
+        assertEquals("new", dao.find("Theirs").content);
+    }
+
+    @Test
+    public void testHashTreeFollowsEverySaveAndDelete() {
+        var random = new Random(0);
+        var notes = new HashMap<String, Note>();
+        for (int i = 0; i < 2_000; i++) {
+            var title = "Note " + random.nextInt(500);
+            if (random.nextInt(5) == 0) {
+                dao.delete(title);
+                notes.remove(title);
+            } else {
+                var note = new Note(title, "content " + i, i);
+                dao.upsert(note);
+                notes.put(title, note);
+            }
+        }
+        dao.upsert(new Note("Long", "lorem ipsum ".repeat(10_000), 1));
+        notes.put("Long", new Note("Long", "lorem ipsum ".repeat(10_000), 1));
+
+        // Built from scratch, the tree comes out the same as updated save by save.
+        var hashes = new HashMap<Integer, Long>();
+        for (var note : notes.values()) {
+            var digest = MerkleNode.digestOf(note.title, note.version, note.content);
+            for (var id : MerkleNode.pathTo(MerkleNode.bucketOf(note.title))) {
+                hashes.merge(id, digest, (a, b) -> a ^ b);
+            }
+        }
+        var ids = new ArrayList<Integer>();
+        for (int id = 0; id < MerkleNode.FIRST_LEAF + MerkleNode.BUCKETS; id++) ids.add(id);
+        var stored = dao.getTreeHashes(ids);
+        for (var id : ids) assertEquals((long) hashes.getOrDefault(id, 0L), (long) stored.get(id));
+
+        var bucket = MerkleNode.bucketOf("Long");
+        assertTrue(dao.getTreeEntries(List.of(bucket)).stream().anyMatch(entry -> entry.title.equals("Long")));
+    }
+
+    @Test
+    public void testCompressedChunksTakeLessSpace() {
+        var context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // Meeting logs, lecture notes and the like: long, and made of ordinary words.
+        var words = ("the a of to and in that is for on with as it be at by this from or have an "
+            + "meeting agenda action item follow up team budget review lecture chapter exam due "
+            + "project deadline draft question answer discuss plan next week monday friday").split(" ");
+        var random = new Random(0);
+        var corpus = new ArrayList<Note>();
+        for (int i = 0; i < 40; i++) {
+            var text = new StringBuilder();
+            var length = NoteChunk.MIN_NOTE_LENGTH + random.nextInt(4 * NoteChunk.MIN_NOTE_LENGTH);
+            while (text.length() < length) {
+                text.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+            }
+            corpus.add(new Note("Log " + i, text.toString(), 1));
+        }
+
+        var sizes = new long[2];
+        for (var compress : new boolean[]{false, true}) {
+            var name = "codec-" + compress + ".db";
+            context.deleteDatabase(name);
+            var onDisk = Room.databaseBuilder(context, NoteDatabase.class, name).build();
+            var notes = onDisk.getDao();
+            notes.setCompression(compress);
+
+            var start = System.nanoTime();
+            for (var note : corpus) notes.upsert(note);
+            var writeMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            for (var note : corpus) assertEquals(note.content, notes.find(note.title).content);
+            var readMs = (System.nanoTime() - start) / 1e6;
+
+            // Previews don't read chunks at all, compressed or not.
+            var preview = loadPage(notes.getPreviews(), 0, 1).get(0);
+            assertEquals("Log 0", preview.title);
+            assertEquals(corpus.get(0).content.substring(0, NotePreview.MAX_LENGTH), preview.preview);
+
+            onDisk.query(new SimpleSQLiteQuery("PRAGMA wal_checkpoint(TRUNCATE)")).close();
+            onDisk.close();
+            var size = context.getDatabasePath(name).length();
+            sizes[compress ? 1 : 0] = size;
+            context.deleteDatabase(name);
+
+            System.out.printf("%d long notes, compression %s: %d KiB on disk, write %.1f ms/note, "
+                    + "read %.1f ms/note%n",
+                corpus.size(), compress ? "on" : "off", size / 1024,
+                writeMs / corpus.size(), readMs / corpus.size());
+        }
+        assertTrue(sizes[1] * 2 < sizes[0]);
+    }
+
+    /** Load one page from a paging source, like the note list does, but waiting for it. */
+    @SuppressWarnings("unchecked")
+    private static <V> List<V> loadPage(PagingSource<Integer, V> source, int offset, int size)
+            throws Exception {
+        var params = new PagingSource.LoadParams.Refresh<>(offset, size, false);
+        var done = new CompletableFuture<Object>();
+        var returned = source.load(params, new Continuation<PagingSource.LoadResult<Integer, V>>() {
+            @NonNull
+            @Override
+            public CoroutineContext getContext() {
+                return EmptyCoroutineContext.INSTANCE;
+            }
+
+            @Override
+            public void resumeWith(@NonNull Object result) {
+                done.complete(result);
+            }
+        });
+        if (returned != IntrinsicsKt.getCOROUTINE_SUSPENDED()) done.complete(returned);
+
+        var result = done.get(30, TimeUnit.SECONDS);
+        if (result instanceof Result.Failure) throw new AssertionError(((Result.Failure) result).exception);
+        if (result instanceof PagingSource.LoadResult.Error) {
+            throw new AssertionError(((PagingSource.LoadResult.Error<Integer, V>) result).getThrowable());
+        }
+        return ((PagingSource.LoadResult.Page<Integer, V>) result).getData();
+    }
+
+    private static List<String> titlesOf(List<NotePreview> previews) {
+        var titles = new ArrayList<String>(previews.size());
+        for (var preview : previews) titles.add(preview.title);
+        return titles;
+    }
+
+    private long countRows(String table) {
+        try (var cursor = db.query(new SimpleSQLiteQuery("SELECT COUNT(*) FROM " + table))) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    /** Every row of the tables a save writes to, as text, by table and rowid. */
+    private Map<String, String> rows() {
+        var rows = new HashMap<String, String>();
+        for (var table : List.of("notes", "note_chunks", "note_versions", "note_crdts", "note_crdt_ops")) {
+            try (var cursor = db.query(new SimpleSQLiteQuery("SELECT rowid, * FROM " + table))) {
+                while (cursor.moveToNext()) {
+                    var row = new StringBuilder();
+                    for (int i = 1; i < cursor.getColumnCount(); i++) {
+                        if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+                            row.append(new String(cursor.getBlob(i), StandardCharsets.ISO_8859_1));
+                        } else if (!cursor.isNull(i)) {
+                            row.append(cursor.getString(i));
+                        }
+                    }
+                    rows.put(table + ":" + cursor.getLong(0), row.toString());
+                }
+            }
+        }
+        return rows;
+    }
+
+    private List<Note> loadWholeNotes() {
+        var notes = new ArrayList<Note>();
+        try (var cursor = db.query(new SimpleSQLiteQuery("SELECT * FROM notes ORDER BY title"))) {
+            while (cursor.moveToNext()) {
+                notes.add(new Note(
+                    cursor.getString(cursor.getColumnIndexOrThrow("title")),
+                    cursor.getString(cursor.getColumnIndexOrThrow("content")),
+                    cursor.getLong(cursor.getColumnIndexOrThrow("version"))));
+            }
+        }
+        return notes;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
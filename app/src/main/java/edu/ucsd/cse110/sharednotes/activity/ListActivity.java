@@ -3,6 +3,7 @@ package edu.ucsd.cse110.sharednotes.activity;
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
@@ -13,11 +14,13 @@ import androidx.recyclerview.widget.RecyclerView;
 import android.annotation.SuppressLint;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 
 import edu.ucsd.cse110.sharednotes.R;
-import edu.ucsd.cse110.sharednotes.model.Note;
+import edu.ucsd.cse110.sharednotes.model.NotePreview;
 import edu.ucsd.cse110.sharednotes.view.NotesAdapter;
 import edu.ucsd.cse110.sharednotes.viewmodel.ListViewModel;
 
@@ -100,6 +103,22 @@ public class ListActivity extends AppCompatActivity {
         setupViews(viewModel, adapter);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_list, menu);
+        setupSearch(menu.findItem(R.id.action_search), setupViewModel());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_sync_all) {
+            setupViewModel().syncAll();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     private ListViewModel setupViewModel() {
         return new ViewModelProvider(this).get(ListViewModel.class);
     }
@@ -107,10 +126,9 @@ public class ListActivity extends AppCompatActivity {
     @NonNull
     private NotesAdapter setupAdapter(ListViewModel viewModel) {
         NotesAdapter adapter = new NotesAdapter();
-        adapter.setHasStableIds(true);
         adapter.setOnNoteClickListener(note -> onNoteClicked(note, viewModel));
         adapter.setOnNoteDeleteClickListener(note -> onNoteDeleteClicked(note, viewModel));
-        viewModel.getNotes().observe(this, adapter::setNotes);
+        viewModel.getNotes().observe(this, pages -> adapter.submitData(getLifecycle(), pages));
         return adapter;
     }
 
@@ -135,6 +153,25 @@ public class ListActivity extends AppCompatActivity {
         recyclerView.setAdapter(adapter);
     }
 
+    private void setupSearch(MenuItem item, ListViewModel viewModel) {
+        var searchView = (SearchView) item.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                viewModel.setQuery(query);
+                return true;
+            }
+
+            // Search as the user types. Each query is an indexed lookup, so this stays cheap.
+            @Override
+            public boolean onQueryTextChange(String query) {
+                viewModel.setQuery(query);
+                return true;
+            }
+        });
+    }
+
     private void setupInput(ListViewModel viewModel) {
         var input = (EditText) findViewById(R.id.input_new_note_title);
         input.setOnEditorActionListener((view, actionId, event) -> {
@@ -149,6 +186,8 @@ public class ListActivity extends AppCompatActivity {
 
             // ...wait for the database to finish persisting it...
             note.observe(this, noteEntity -> {
+                if (noteEntity == null) return;
+
                 // ...stop observing.
                 note.removeObservers(this);
 
@@ -163,17 +202,17 @@ public class ListActivity extends AppCompatActivity {
 
     /* Mediation Logic */
 
-    public void onNoteClicked(Note note, ListViewModel viewModel) {
+    public void onNoteClicked(NotePreview note, ListViewModel viewModel) {
         // Launch NoteActivity
         // Note that we do _NOT_ want to call itemView.getContext().startActivity() inside
         // ViewHolder,because it is the context of a ViewHolder which might get recycled.
         // Therefore, we delegate to the NoteActivity class to create the intent.
         Log.d("NotesAdapter", "Opened note " + note.title);
-        var intent = NoteActivity.intentFor(this, note);
+        var intent = NoteActivity.intentFor(this, note.title);
         startActivity(intent);
     }
 
-    public void onNoteDeleteClicked(Note note, ListViewModel viewModel) {
+    public void onNoteDeleteClicked(NotePreview note, ListViewModel viewModel) {
         // Delete the note
         Log.d("NotesAdapter", "Deleted note " + note.title);
         viewModel.delete(note);
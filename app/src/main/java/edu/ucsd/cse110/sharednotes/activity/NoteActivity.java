@@ -7,6 +7,7 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.lifecycle.LiveData;
@@ -16,6 +17,7 @@ import edu.ucsd.cse110.sharednotes.R;
 import edu.ucsd.cse110.sharednotes.model.Note;
 import edu.ucsd.cse110.sharednotes.model.NoteDao;
 import edu.ucsd.cse110.sharednotes.model.NoteDatabase;
+import edu.ucsd.cse110.sharednotes.model.TextPatch;
 import edu.ucsd.cse110.sharednotes.viewmodel.ListViewModel;
 import edu.ucsd.cse110.sharednotes.viewmodel.NoteViewModel;
 
@@ -73,20 +75,45 @@ public class NoteActivity extends AppCompatActivity {
             var updatedContent = contentView.getText().toString();
             assert updatedNote != null;
 
+            // What the editor showed before our edits. Edits merged in since, which it doesn't
+            // show yet, aren't undone by saving over them.
+            var shownContent = updatedNote.content;
             updatedNote.content = updatedContent;
 
-            viewModel.save(updatedNote);
+            viewModel.save(updatedNote, shownContent);
         });
     }
 
     private void onNoteChanged(Note note) {
-        contentView.setText(note.content);
+        showContent(contentView, note.content);
+    }
+
+    /**
+     * Show a note's content without starting over. Remote updates arrive every few seconds, and
+     * usually change a few characters if any, so only the span that changed is replaced: the rest
+     * of a long note keeps its layout, and the cursor and selection stay with the text around them.
+     */
+    @VisibleForTesting
+    static void showContent(EditText view, String content) {
+        var text = view.getText();
+        var patch = TextPatch.between(text, content);
+        if (patch.isEmpty()) return;
+
+        var start = view.getSelectionStart();
+        var end = view.getSelectionEnd();
+        text.replace(patch.offset, patch.offset + patch.delete, patch.insert);
+        if (start >= 0 && end >= 0) view.setSelection(patch.shift(start), patch.shift(end));
     }
 
     /** Utility method to create an intent for this activity. */
     public static Intent intentFor(Context context, Note note) {
+        return intentFor(context, note.title);
+    }
+
+    /** Like {@link #intentFor(Context, Note)}, for when only the note's title is at hand. */
+    public static Intent intentFor(Context context, String title) {
         var intent = new Intent(context, NoteActivity.class);
-        intent.putExtra("note_title", note.title);
+        intent.putExtra("note_title", title);
         return intent;
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Upsert;
+
+import java.util.List;
+
+/** Data access object for the {@link NoteCrdt} edit histories, and the ops logged since. */
+@Dao
+public abstract class CrdtDao {
+    /** Once a note has this many batches of ops logged, they are folded into a new snapshot. */
+    public static final int MAX_LOGGED = 64;
+
+    @Query("SELECT * FROM note_crdts WHERE title = :title")
+    public abstract NoteCrdt find(String title);
+
+    @Query("SELECT * FROM note_crdt_ops WHERE title = :title ORDER BY id")
+    public abstract List<NoteCrdtOps> getOps(String title);
+
+    @Query("SELECT COUNT(*) FROM note_crdt_ops WHERE title = :title")
+    public abstract int countOps(String title);
+
+    @Insert
+    public abstract long append(NoteCrdtOps ops);
+
+    /** Replace a note's history, including the ops logged since the last snapshot. */
+    @Transaction
+    public void upsert(NoteCrdt crdt) {
+        upsertSnapshot(crdt);
+        deleteOps(crdt.title);
+    }
+
+    @Transaction
+    public void delete(String title) {
+        deleteSnapshot(title);
+        deleteOps(title);
+    }
+
+    @Upsert
+    protected abstract long upsertSnapshot(NoteCrdt crdt);
+
+    @Query("DELETE FROM note_crdts WHERE title = :title")
+    protected abstract int deleteSnapshot(String title);
+
+    @Query("DELETE FROM note_crdt_ops WHERE title = :title")
+    protected abstract int deleteOps(String title);
+}
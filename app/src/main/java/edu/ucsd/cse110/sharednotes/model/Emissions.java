@@ -0,0 +1,122 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A minimal push-based stream of values, for what sits between a note's sources (the database,
+ * the server) and whoever is showing it.
+ * <p>
+ * Each operator returns a new stage downstream of this one, so they chain, e.g.
+ * {@code source.distinctBy(key).conflate(executor).collect(consumer)}. A stage has one consumer;
+ * collecting it again replaces the last one.
+ */
+public class Emissions<T> {
+    private volatile Consumer<? super T> downstream = value -> {};
+
+    /** Send a value down the stream. */
+    @AnyThread
+    public void emit(T value) {
+        downstream.accept(value);
+    }
+
+    /** Where the values go from here. */
+    public void collect(Consumer<? super T> consumer) {
+        downstream = consumer;
+    }
+
+    /** Only pass on values whose key differs from that of the last value passed on. */
+    public <K> Emissions<T> distinctBy(Function<? super T, K> key) {
+        var next = new Emissions<T>();
+        collect(new Distinct<>(key, next));
+        return next;
+    }
+
+    /**
+     * Same as {@link #distinctBy(Function)}, but counting {@code current} as passed on already,
+     * e.g. because the consumer was given it some other way.
+     */
+    public <K> Emissions<T> distinctBy(Function<? super T, K> key, T current) {
+        var next = new Emissions<T>();
+        var distinct = new Distinct<>(key, next);
+        distinct.any = true;
+        distinct.last = key.apply(current);
+        collect(distinct);
+        return next;
+    }
+
+    /**
+     * Pass on only the latest value, on {@code executor}. A value that arrives while a delivery is
+     * still waiting to run replaces the one it will deliver, instead of queueing up behind it: a
+     * burst becomes one delivery, and a consumer that falls behind skips to the newest value
+     * rather than working through a backlog. At most one value is ever held.
+     */
+    public Emissions<T> conflate(Executor executor) {
+        var next = new Emissions<T>();
+        collect(new Conflate<>(executor, next));
+        return next;
+    }
+
+    private static class Distinct<T, K> implements Consumer<T> {
+        private final Function<? super T, K> key;
+        private final Emissions<T> next;
+
+        // Guarded by this.
+        private boolean any = false;
+        private K last;
+
+        Distinct(Function<? super T, K> key, Emissions<T> next) {
+            this.key = key;
+            this.next = next;
+        }
+
+        @Override
+        public void accept(T value) {
+            var current = key.apply(value);
+            synchronized (this) {
+                if (any && Objects.equals(current, last)) return;
+                any = true;
+                last = current;
+            }
+            next.emit(value);
+        }
+    }
+
+    private static class Conflate<T> implements Consumer<T> {
+        private final Executor executor;
+        private final Emissions<T> next;
+
+        // Guarded by this.
+        private boolean pending = false;
+        private T latest;
+
+        Conflate(Executor executor, Emissions<T> next) {
+            this.executor = executor;
+            this.next = next;
+        }
+
+        @Override
+        public void accept(T value) {
+            synchronized (this) {
+                latest = value;
+                if (pending) return;
+                pending = true;
+            }
+            executor.execute(this::deliver);
+        }
+
+        private void deliver() {
+            T value;
+            synchronized (this) {
+                value = latest;
+                latest = null;
+                pending = false;
+            }
+            next.emit(value);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.VisibleForTesting;
+
+import java.security.SecureRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * A hybrid logical clock, which hands out the versions notes are saved with.
+ * <p>
+ * A version is wall-clock milliseconds in its top 48 bits and a counter in its bottom 16. It
+ * follows the wall clock while that moves forward, but never goes backwards or repeats, and every
+ * version we hear about from someone else moves it past that version. So a save always comes after
+ * everything its device had seen when it was made, even if that device's clock is behind, while
+ * versions from different devices still sort roughly by when they were really made. Two saves in
+ * the same millisecond on different devices are told apart by each device's {@link #getNode()
+ * node id} (see {@link Note#isNewerThan(Note)}).
+ * <p>
+ * Versions are still plain longs, so they fit where the old save counter went, and are newer than
+ * any counter value.
+ * <p>
+ * A version from a device whose clock is far ahead (or a bogus one) would drag every clock that
+ * hears of it along, for good, so versions more than {@link #MAX_DRIFT_MS} ahead of our wall clock
+ * are not followed.
+ */
+public class HybridClock {
+    private static final int COUNTER_BITS = 16;
+
+    /** How far ahead of our wall clock a version we receive can be, for us to follow it. */
+    public static final long MAX_DRIFT_MS = 60 * 60 * 1000;
+
+    private volatile static HybridClock instance = null;
+
+    private final long node;
+    private final LongSupplier wallClock;
+
+    // Guarded by this.
+    private long last = 0;
+
+    public HybridClock(long node, LongSupplier wallClock) {
+        this.node = node;
+        this.wallClock = wallClock;
+    }
+
+    /**
+     * The clock for this app. Its node id only has to be unique, not stable, so a random one per
+     * run is enough.
+     */
+    public synchronized static HybridClock provide() {
+        if (instance == null) {
+            long node;
+            do {
+                node = new SecureRandom().nextLong();
+            } while (node == 0);
+            instance = new HybridClock(node, System::currentTimeMillis);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public synchronized static void inject(HybridClock testClock) {
+        instance = testClock;
+    }
+
+    /** Breaks ties between versions made in the same millisecond on different devices. */
+    public long getNode() {
+        return node;
+    }
+
+    /** A new version, newer than every version this clock has made or followed. */
+    @AnyThread
+    public synchronized long now() {
+        last = Math.max(last + 1, wallClock.getAsLong() << COUNTER_BITS);
+        return last;
+    }
+
+    /**
+     * Account for a version made elsewhere, so our next one comes after it.
+     *
+     * @return false if the version is too far ahead of our wall clock to follow, see
+     * {@link #MAX_DRIFT_MS}.
+     */
+    @AnyThread
+    public synchronized boolean receive(long version) {
+        var limit = (wallClock.getAsLong() + MAX_DRIFT_MS) << COUNTER_BITS;
+        if (version > limit) return false;
+        last = Math.max(last, version);
+        return true;
+    }
+
+    /** The wall-clock time, in epoch millis, a version was made at (as far as its device knew). */
+    public static long millisOf(long version) {
+        return version >>> COUNTER_BITS;
+    }
+}
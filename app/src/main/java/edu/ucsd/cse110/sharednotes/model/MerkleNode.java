@@ -0,0 +1,128 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node of the hash tree over every note, which lets two copies of the library find the notes
+ * they disagree on without comparing them one by one (see {@link NoteReconciler}).
+ * <p>
+ * Each note goes in one of {@link #BUCKETS} buckets by its title, and has a digest of its title,
+ * version and content. The tree has {@link #FANOUT} children per node and a bucket at each leaf,
+ * and a node's hash is the XOR of the digests of every note under it. So two libraries agree
+ * on a subtree exactly when its hashes agree (short of a 64-bit collision), and a save only has
+ * to update the hashes on the way from its bucket to the root.
+ * <p>
+ * Nodes are numbered level by level from the root, which is 0. Nodes whose hash is 0 (with no
+ * notes under them) may not be stored at all.
+ */
+@Entity(tableName = "merkle_nodes")
+public class MerkleNode {
+    public static final int FANOUT = 16;
+
+    /** How many levels there are below the root. */
+    public static final int DEPTH = 3;
+
+    /** Each level takes 4 more bits of a title's hash to pick which of the 16 children to go to. */
+    private static final int BUCKET_BITS = 4 * DEPTH;
+
+    public static final int BUCKETS = 1 << BUCKET_BITS;
+
+    /** The number of the first leaf. Leaves are numbered in bucket order. */
+    public static final int FIRST_LEAF = (BUCKETS - 1) / (FANOUT - 1);
+
+    @PrimaryKey
+    public int id;
+
+    public long hash;
+
+    public MerkleNode(int id, long hash) {
+        this.id = id;
+        this.hash = hash;
+    }
+
+    /** The bucket a note with this title goes in. */
+    public static int bucketOf(String title) {
+        var hash = ByteBuffer.wrap(sha256(title.getBytes(StandardCharsets.UTF_8))).getInt();
+        return hash >>> (Integer.SIZE - BUCKET_BITS);
+    }
+
+    /** What a note adds to the hashes of the nodes it is under. */
+    public static long digestOf(String title, long version, String content) {
+        var titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        var contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        var bytes = ByteBuffer.allocate(titleBytes.length + 1 + Long.BYTES + contentBytes.length)
+            .put(titleBytes)
+            .put((byte) 0)
+            .putLong(version)
+            .put(contentBytes)
+            .array();
+        return ByteBuffer.wrap(sha256(bytes)).getLong();
+    }
+
+    /** The nodes from a bucket's leaf up to the root, each of which has the bucket's notes under it. */
+    public static List<Integer> pathTo(int bucket) {
+        var path = new ArrayList<Integer>(DEPTH + 1);
+        for (int id = FIRST_LEAF + bucket; ; id = (id - 1) / FANOUT) {
+            path.add(id);
+            if (id == 0) return path;
+        }
+    }
+
+    public static boolean isLeaf(int id) {
+        return id >= FIRST_LEAF;
+    }
+
+    /** The bucket at a leaf. */
+    public static int bucketAt(int leaf) {
+        return leaf - FIRST_LEAF;
+    }
+
+    /** The children of a node that isn't a leaf. */
+    public static List<Integer> childrenOf(int id) {
+        var children = new ArrayList<Integer>(FANOUT);
+        for (int i = 1; i <= FANOUT; i++) children.add(id * FANOUT + i);
+        return children;
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every Java platform has SHA-256", e);
+        }
+    }
+
+    /** A note in a bucket, as far as comparing it goes. */
+    public static class Entry {
+        @SerializedName("title")
+        @NonNull
+        public final String title;
+
+        @SerializedName("version")
+        public final long version;
+
+        @SerializedName("node")
+        public final long node;
+
+        @SerializedName("digest")
+        public final long digest;
+
+        public Entry(@NonNull String title, long version, long node, long digest) {
+            this.title = title;
+            this.version = version;
+            this.node = node;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Counts what our HTTP calls cost in connections, to tell whether they are actually reused.
+ * <p>
+ * One instance listens to every call made through the shared client (see {@link NoteAPI}),
+ * including the push stream's. A call that finds a pooled connection skips the TCP and TLS
+ * handshakes entirely, so a reuse rate near 1 means polling and uploads are cheap.
+ */
+public class NetworkMetrics extends EventListener {
+    /** A snapshot of how many connections our calls needed. */
+    public static class Stats {
+        public final long calls;
+        public final long failures;
+        /** How many times a call was given a connection, new or pooled. */
+        public final long connectionsAcquired;
+        public final long connectionsOpened;
+        public final long tlsHandshakes;
+        public final long cacheHits;
+        /** The share of acquired connections that were already open, between 0 and 1. */
+        public final double reuseRate;
+
+        Stats(long calls, long failures, long connectionsAcquired, long connectionsOpened,
+              long tlsHandshakes, long cacheHits) {
+            this.calls = calls;
+            this.failures = failures;
+            this.connectionsAcquired = connectionsAcquired;
+            this.connectionsOpened = connectionsOpened;
+            this.tlsHandshakes = tlsHandshakes;
+            this.cacheHits = cacheHits;
+            this.reuseRate = connectionsAcquired == 0
+                ? 0
+                : Math.max(connectionsAcquired - connectionsOpened, 0) / (double) connectionsAcquired;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format("%d calls (%d failed), %d connections opened for %d acquired "
+                    + "(%.0f%% reused), %d TLS handshakes, %d cache hits",
+                calls, failures, connectionsOpened, connectionsAcquired, reuseRate * 100,
+                tlsHandshakes, cacheHits);
+        }
+    }
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong tlsHandshakes = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    @AnyThread
+    public Stats getStats() {
+        return new Stats(calls.get(), failures.get(), connectionsAcquired.get(),
+            connectionsOpened.get(), tlsHandshakes.get(), cacheHits.get());
+    }
+
+    @Override
+    public void callStart(@NonNull Call call) {
+        calls.incrementAndGet();
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException e) {
+        failures.incrementAndGet();
+    }
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address,
+                           @NonNull Proxy proxy, Protocol protocol) {
+        connectionsOpened.incrementAndGet();
+    }
+
+    @Override
+    public void secureConnectEnd(@NonNull Call call, Handshake handshake) {
+        tlsHandshakes.incrementAndGet();
+    }
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        connectionsAcquired.incrementAndGet();
+    }
+
+    @Override
+    public void cacheHit(@NonNull Call call, @NonNull Response response) {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void cacheConditionalHit(@NonNull Call call, @NonNull Response cachedResponse) {
+        cacheHits.incrementAndGet();
+    }
+}
@@ -1,21 +1,37 @@
 package edu.ucsd.cse110.sharednotes.model;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 
-@Entity(tableName = "notes")
+@Entity(tableName = "notes", indices = {@Index("seq"), @Index("bucket")})
+@JsonAdapter(Note.Adapter.class)
 public class Note {
+    /**
+     * One Gson for all (de)serialization. Building a Gson is not cheap, and we parse a note on
+     * every poll.
+     */
+    private static final Gson GSON = new Gson();
+
     /** The title of the note. Used as the primary key for shared notes (even on the cloud). */
     @PrimaryKey
     @SerializedName("title")
@@ -28,13 +44,41 @@ public class Note {
     public String content;
 
     /**
-     * When the note was last modified. Used for resolving local (db) vs remote (api) conflicts.
-     * Defaults to 0 (Jan 1, 1970), so that if a note already exists remotely, its content is
-     * always preferred to a new empty note.
+     * When the note was last modified, as a {@link HybridClock} version. Used for resolving local
+     * (db) vs remote (api) conflicts. Defaults to 0 (Jan 1, 1970), so that if a note already
+     * exists remotely, its content is always preferred to a new empty note.
      */
     @SerializedName(value = "version")
     public long version = 0;
 
+    /** The node id of the clock that made the version, to break ties between equal versions. */
+    @SerializedName("node")
+    @ColumnInfo(defaultValue = "0")
+    public long node = 0;
+
+    /**
+     * Only used by the database: for long notes, the hashes of the {@link NoteChunk chunks} the
+     * content is stored in, while the content column itself only keeps the start of it, for
+     * previews. Null otherwise.
+     */
+    @Nullable
+    public String chunks;
+
+    /**
+     * Only used by the database: counts up with every save to this device's database, whichever
+     * note it is to, so the notes changed since some point can be found with an index lookup.
+     */
+    @ColumnInfo(defaultValue = "0")
+    public long seq = 0;
+
+    /** Only used by the database: the note's {@link MerkleNode#bucketOf(String) bucket}. */
+    @ColumnInfo(defaultValue = "0")
+    public int bucket = 0;
+
+    /** Only used by the database: the note's {@link MerkleNode#digestOf digest}. */
+    @ColumnInfo(defaultValue = "0")
+    public long digest = 0;
+
     /** General constructor for a note. */
     public Note(@NonNull String title, @NonNull String content) {
         this.title = title;
@@ -49,11 +93,110 @@ public class Note {
         this.version = version;
     }
 
+    @Ignore
+    public Note(@NonNull String title, @NonNull String content, long version, long node) {
+        this.title = title;
+        this.content = content;
+        this.version = version;
+        this.node = node;
+    }
+
+    /** Whether this note was saved after {@code other}. Every device orders two notes the same way. */
+    public boolean isNewerThan(@Nullable Note other) {
+        if (other == null) return true;
+        if (version != other.version) return version > other.version;
+        return node > other.node;
+    }
+
     public static Note fromJSON(String json) {
-        return new Gson().fromJson(json, Note.class);
+        return GSON.fromJson(json, Note.class);
+    }
+
+    /** Parse a note straight from a stream, e.g. a response body, without buffering it first. */
+    public static Note fromJSON(Reader json) {
+        return GSON.fromJson(json, Note.class);
+    }
+
+    /** Read a note from JSON that was already parsed, e.g. to find out what kind of message it is. */
+    public static Note fromJSON(JsonElement json) {
+        return GSON.fromJson(json, Note.class);
     }
 
     public String toJSON() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
+    }
+
+    public static List<Note> listFromJSON(String json) {
+        return Arrays.asList(GSON.fromJson(json, Note[].class));
+    }
+
+    public static List<Note> listFromJSON(Reader json) {
+        return Arrays.asList(GSON.fromJson(json, Note[].class));
+    }
+
+    public static String listToJSON(List<Note> notes) {
+        return GSON.toJson(notes);
+    }
+
+    /**
+     * Reads and writes notes field by field, instead of Gson's default reflection.
+     * <p>
+     * Unknown fields are skipped, and missing ones are left null (or 0), same as Gson would.
+     */
+    static class Adapter extends TypeAdapter<Note> {
+        @Override
+        public void write(JsonWriter out, Note note) throws IOException {
+            if (note == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("title").value(note.title);
+            out.name("content").value(note.content);
+            out.name("version").value(note.version);
+            out.name("node").value(note.node);
+            out.endObject();
+        }
+
+        @Override
+        public Note read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            String title = null;
+            String content = null;
+            long version = 0;
+            long node = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                var name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "title":
+                        title = in.nextString();
+                        break;
+                    case "content":
+                        content = in.nextString();
+                        break;
+                    case "version":
+                        version = in.nextLong();
+                        break;
+                    case "node":
+                        node = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Note(title, content, version, node);
+        }
     }
 }
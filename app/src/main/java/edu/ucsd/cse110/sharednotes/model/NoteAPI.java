@@ -1,46 +1,174 @@
 package edu.ucsd.cse110.sharednotes.model;
 
+import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
 
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
 
+/**
+ * The client for the shared notes server (https://sharednotes.goto.ucsd.edu/docs), on top of
+ * OkHttp (https://square.github.io/okhttp/).
+ */
 public class NoteAPI {
-    // TODO: Implement the API using OkHttp!
-    // TODO: - getNote (maybe getNoteAsync)
-    // TODO: - putNote (don't need putNotAsync, probably)
-    // TODO: Read the docs: https://square.github.io/okhttp/
-    // TODO: Read the docs: https://sharednotes.goto.ucsd.edu/docs
-
     private volatile static NoteAPI instance = null;
 
     public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
-    private OkHttpClient client;
+    private static final String DEFAULT_BASE_URL = "https://sharednotes.goto.ucsd.edu/";
+
+    /** Notes shorter than this are cheap enough to just send whole. */
+    private static final int PATCH_MIN_LENGTH = 1024;
+
+    /** Request bodies at least this big are gzipped, if the server takes gzip. */
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    /** The most notes to ask for in one page of changes. */
+    private static final int CHANGES_PAGE_SIZE = 200;
+
+    private static final Gson GSON = new Gson();
+
+    /** Room for cached responses on disk. */
+    private static final long CACHE_BYTES = 10 * 1024 * 1024;
+
+    private final OkHttpClient client;
+    private final NetworkMetrics metrics = new NetworkMetrics();
+    private final String baseUrl;
+
+    /** Validators from the last full response for each title, used for conditional GETs. */
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+    private final Map<String, String> lastModified = new ConcurrentHashMap<>();
+
+    /**
+     * The last copy of each note we know the server has, i.e. that we uploaded or downloaded.
+     * Uploads are sent as a patch against this copy. These are snapshots, never the caller's
+     * (mutable) notes.
+     */
+    private final Map<String, Note> acknowledged = new ConcurrentHashMap<>();
+
+    /** Whether the server has bulk routes. Assumed until it tells us otherwise. */
+    private volatile boolean bulkSupported = true;
+
+    /** Whether the server has a feed of changed notes. Assumed until it tells us otherwise. */
+    private volatile boolean changesSupported = true;
+
+    /** Whether the server has a hash tree to compare with. Assumed until it tells us otherwise. */
+    private volatile boolean treeSupported = true;
+
+    /** Whether the server accepts PATCH uploads. Assumed until it tells us otherwise. */
+    private volatile boolean patchSupported = true;
+
+    /**
+     * Whether the server said it accepts gzipped request bodies, with an Accept-Encoding header on
+     * a response (RFC 7694). Servers that don't know about them can't be relied on to say so with
+     * a 415, so we don't gzip until then.
+     */
+    private volatile boolean gzipAdvertised = false;
+
+    /** Whether the server rejected a gzipped body even so. Then we never gzip again. */
+    private volatile boolean gzipRejected = false;
 
     public NoteAPI() {
-        this.client = new OkHttpClient();
+        this(DEFAULT_BASE_URL);
+    }
+
+    public NoteAPI(String baseUrl) {
+        this(baseUrl, null);
+    }
+
+    /**
+     * @param baseUrl  the server to talk to
+     * @param cacheDir where to cache responses on disk, or null to not cache them
+     */
+    public NoteAPI(String baseUrl, @Nullable File cacheDir) {
+        this.client = buildClient(cacheDir, metrics);
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
     }
 
-    public static NoteAPI provide() {
+    /**
+     * The app's one NoteAPI, and with it the one HTTP client that every request and the push
+     * stream go through, so they all share its connections.
+     */
+    public synchronized static NoteAPI provide(Context context) {
         if (instance == null) {
-            instance = new NoteAPI();
+            var cacheDir = new File(context.getApplicationContext().getCacheDir(), "http");
+            instance = new NoteAPI(DEFAULT_BASE_URL, cacheDir);
         }
         return instance;
     }
 
+    /**
+     * Every client would get its own connection pool and dispatcher threads, and TLS sessions
+     * can't be resumed across clients, so we build exactly one per NoteAPI.
+     */
+    private static OkHttpClient buildClient(@Nullable File cacheDir, NetworkMetrics metrics) {
+        var builder = new OkHttpClient.Builder()
+                // Polls come every few seconds to a minute, so keep idle connections around for
+                // a while rather than reconnecting (and redoing the TLS handshake) each time.
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                // One HTTP/2 connection multiplexes all concurrent requests to our server, e.g.
+                // a batch fetch falling back to one request per note.
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(20, TimeUnit.SECONDS)
+                .writeTimeout(20, TimeUnit.SECONDS)
+                // Notices a dead push stream (or HTTP/2 connection) even when nothing is sent.
+                .pingInterval(30, TimeUnit.SECONDS)
+                .eventListener(metrics);
+        // Responses are gzipped transparently: OkHttp asks for gzip and unzips it for us.
+        // Request bodies are gzipped by withJsonBody(), once the server says it takes them.
+        if (cacheDir != null) builder.cache(new Cache(cacheDir, CACHE_BYTES));
+
+        var client = builder.build();
+        // The default of 5 requests per host would serialize anything above that, even over a
+        // single multiplexed connection.
+        client.dispatcher().setMaxRequestsPerHost(16);
+        return client;
+    }
+
+    /** How well requests are reusing connections. */
+    public NetworkMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * An example of sending a GET request to the server.
      *
@@ -51,74 +179,722 @@ public class NoteAPI {
      */
     @WorkerThread
     public String echo(String msg) {
+        return await(echoAsync(msg), null);
+    }
+
+    @AnyThread
+    public CompletableFuture<String> echoAsync(String msg) {
         // URLs cannot contain spaces, so we replace them with %20.
         String encodedMsg = msg.replace(" ", "%20");
 
         var request = new Request.Builder()
-                .url("https://sharednotes.goto.ucsd.edu/echo/" + encodedMsg)
+                .url(baseUrl + "echo/" + encodedMsg)
                 .method("GET", null)
                 .build();
 
-        try (var response = client.newCall(request).execute()) {
+        // We can use future.get(1, SECONDS) to wait for the result.
+        return enqueue(request, response -> {
             assert response.body() != null;
             var body = response.body().string();
             Log.i("ECHO", body);
             return body;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        });
     }
 
-    @AnyThread
-    public Future<String> echoAsync(String msg) {
-        var executor = Executors.newSingleThreadExecutor();
-        var future = executor.submit(() -> echo(msg));
-
-        // We can use future.get(1, SECONDS) to wait for the result.
-        return future;
+    @WorkerThread
+    public Note getNote(String title) {
+        return await(getNoteAsync(title), null);
     }
 
-    @WorkerThread
-    public Note getNote(String title){
+    @AnyThread
+    public CompletableFuture<Note> getNoteAsync(String title) {
         String encodedTitle = title.replace(" ", "%20");
 
         var request = new Request.Builder()
-                .url("https://sharednotes.goto.ucsd.edu/notes/" + encodedTitle)
+                .url(baseUrl + "notes/" + encodedTitle)
                 .method("GET", null)
                 .build();
 
-        try (var response = client.newCall(request).execute()) {
+        return enqueue(request, response -> {
             assert response.body() != null;
-            var body = response.body().string();
-            Log.i("GET", body);
-            return Note.fromJSON(body);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            var note = Note.fromJSON(response.body().charStream());
+            Log.i("GET", title + " " + response.code() + (note == null ? "" : " v" + note.version));
+            if (response.isSuccessful()) acknowledge(note);
+            return note;
+        });
+    }
+
+    /**
+     * Like {@link #getNote(String)}, but only downloads and parses the note if it changed.
+     * <p>
+     * The request carries the validators (ETag / Last-Modified) from the last full response for
+     * this title, plus a {@code since} hint with the version we already have. If the server
+     * answers 304 Not Modified, or returns a note whose version has not advanced, the
+     * {@code known} instance itself is returned, so callers can detect "unchanged" with a cheap
+     * identity check and skip any downstream work.
+     *
+     * @param title the title of the note
+     * @param known the copy of the note we already have, or null if we have none
+     * @return the newer note, {@code known} if nothing changed, or null if the request failed.
+     */
+    @WorkerThread
+    public Note getNoteIfChanged(String title, Note known) {
+        return await(getNoteIfChangedAsync(title, known), null);
+    }
+
+    /**
+     * Like {@link #getNoteIfChanged(String, Note)}, without blocking.
+     *
+     * @return a future of the newer note, {@code known} if nothing changed, or null if the
+     *         server answered with an error. It fails if the server couldn't be reached.
+     */
+    @AnyThread
+    public CompletableFuture<Note> getNoteIfChangedAsync(String title, Note known) {
+        String encodedTitle = title.replace(" ", "%20");
+
+        var url = baseUrl + "notes/" + encodedTitle;
+        if (known != null) url += "?since=" + known.version;
+
+        var builder = new Request.Builder()
+                .url(url)
+                .method("GET", null);
+
+        if (known != null) {
+            var etag = etags.get(title);
+            if (etag != null) builder.header("If-None-Match", etag);
+            var modified = lastModified.get(title);
+            if (modified != null) builder.header("If-Modified-Since", modified);
         }
 
+        return enqueue(builder.build(), response -> {
+            if (response.code() == 304 && known != null) {
+                return known;
+            }
+            if (!response.isSuccessful()) {
+                Log.w("GET", "Unexpected response for " + title + ": " + response.code());
+                return null;
+            }
+
+            rememberValidators(title, response);
+
+            assert response.body() != null;
+            var note = Note.fromJSON(response.body().charStream());
+            if (note == null) {
+                Log.w("GET", "Empty response for " + title);
+                return null;
+            }
+            acknowledge(note);
+            if (known != null && !note.isNewerThan(known)) {
+                return known;
+            }
+            return note;
+        });
+    }
+
+    private void rememberValidators(String title, Response response) {
+        var etag = response.header("ETag");
+        if (etag != null) etags.put(title, etag);
+        else etags.remove(title);
+
+        var modified = response.header("Last-Modified");
+        if (modified != null) lastModified.put(title, modified);
+        else lastModified.remove(title);
     }
 
+    /**
+     * Upload a note to the server.
+     * <p>
+     * If we know which version the server has, and the note is long enough to be worth it, only
+     * the edited span is sent (as a PATCH against that version). If the server has moved on to
+     * another version in the meantime, or doesn't support patches, we send the whole note.
+     *
+     * @return true if the server accepted the note.
+     */
     @WorkerThread
-    public void putNote(Note note){
+    public boolean putNote(Note note) {
+        return await(putNoteAsync(note), false);
+    }
+
+    /** Like {@link #putNote(Note)}, without blocking. */
+    @AnyThread
+    public CompletableFuture<Boolean> putNoteAsync(Note note) {
+        // Callers keep editing their note after saving it, so send it as it is right now.
+        var snapshot = new Note(note.title, note.content, note.version, note.node);
+        var result = new CompletableFuture<Boolean>();
+
+        var base = acknowledged.get(snapshot.title);
+        CompletableFuture<Boolean> patched = CompletableFuture.completedFuture(null);
+        if (patchSupported && base != null && snapshot.content.length() >= PATCH_MIN_LENGTH) {
+            patched = patchNote(snapshot, base, result);
+        }
+
+        patched
+            .thenCompose(accepted -> accepted != null
+                ? CompletableFuture.completedFuture(accepted)
+                : putWholeNote(snapshot, result))
+            .whenComplete(completing(result));
+        return result;
+    }
+
+    /** Send the whole note. */
+    private CompletableFuture<Boolean> putWholeNote(Note note, CompletableFuture<?> owner) {
+        return enqueue(putRequest(note), owner, response -> {
+            assert response.body() != null;
+            var body = response.body().string();
+            Log.i("PUT", body);
+
+            if (response.isSuccessful()) acknowledge(note);
+            return response.isSuccessful();
+        });
+    }
+
+    /**
+     * Send only what changed between {@code base} and {@code note}.
+     *
+     * @return a future of whether the server accepted the patch, or of null if the whole note
+     *         should be sent.
+     */
+    private CompletableFuture<Boolean> patchNote(Note note, Note base, CompletableFuture<?> owner) {
+        var patch = TextPatch.between(base.content, note.content);
+
         JsonObject json = new JsonObject();
+        json.addProperty("base_version", base.version);
         json.addProperty("version", note.version);
-        json.addProperty("content", note.content);
-        RequestBody msg = RequestBody.create(json.toString(), JSON);
+        json.addProperty("node", note.node);
+        json.addProperty("offset", patch.offset);
+        json.addProperty("delete", patch.delete);
+        json.addProperty("insert", patch.insert);
+
+        var request = withJsonBody(new Request.Builder(), "PATCH", json.toString())
+                .url(baseUrl + "notes/" + note.title)
+                .build();
+
+        return enqueue(request, owner, response -> {
+            if (response.isSuccessful()) {
+                Log.i("PATCH", note.title + " @ " + note.version);
+                acknowledge(note);
+                return true;
+            }
+            if (response.code() == 409 || response.code() == 412) {
+                // The server's copy isn't the one we diffed against.
+                acknowledged.remove(note.title);
+                return null;
+            }
+            if (isMissingRoute(response) || response.code() == 415) {
+                patchSupported = false;
+                return null;
+            }
+            Log.w("PATCH", "Unexpected response for " + note.title + ": " + response.code());
+            return false;
+        });
+    }
+
+    /** Remember a snapshot of a note the server is known to have. */
+    private void acknowledge(Note note) {
+        if (note == null || note.title == null || note.content == null) return;
+        acknowledged.put(note.title, new Note(note.title, note.content, note.version));
+    }
+
+    /**
+     * Attach a JSON body, gzipping it if the server takes gzip and it is big enough for that to
+     * pay off. A gzipped request keeps its plain body with it, in case it has to be sent again
+     * without gzip (see {@link #enqueue(Request, CompletableFuture, CompletableFuture, ResponseParser)}).
+     */
+    private Request.Builder withJsonBody(Request.Builder builder, String method, String json) {
+        var bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (!gzipAdvertised || gzipRejected || bytes.length < GZIP_MIN_BYTES) {
+            return builder.method(method, RequestBody.create(bytes, JSON));
+        }
+
+        var compressed = new ByteArrayOutputStream(bytes.length / 2);
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            // Writing to memory doesn't fail, but if it somehow does, send it as-is.
+            return builder.method(method, RequestBody.create(bytes, JSON));
+        }
+        return builder
+                .header("Content-Encoding", "gzip")
+                .tag(PlainBody.class, new PlainBody(bytes))
+                .method(method, RequestBody.create(compressed.toByteArray(), JSON));
+    }
+
+    /** The body of a gzipped request, before it was gzipped. */
+    private static class PlainBody {
+        final byte[] bytes;
+
+        PlainBody(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Whether the server couldn't take a request because it was gzipped. A server that doesn't
+     * know about gzipped bodies may call one unsupported (415), or fail to parse it (400, 422).
+     */
+    private static boolean isGzipRejected(Response response) {
+        if (response.request().tag(PlainBody.class) == null) return false;
+        var code = response.code();
+        return code == 400 || code == 415 || code == 422;
+    }
+
+    /** Remember whether the server says it takes gzipped request bodies. */
+    private void checkAcceptEncoding(Response response) {
+        if (gzipAdvertised) return;
+        var accepted = response.header("Accept-Encoding");
+        if (accepted != null && accepted.contains("gzip")) gzipAdvertised = true;
+    }
+
+    /**
+     * Open the server's note stream, which pushes notes to us as they change.
+     * See {@link NotePushClient} for the messages that go over it.
+     */
+    @AnyThread
+    public WebSocket openNoteStream(WebSocketListener listener) {
+        var request = new Request.Builder()
+                .url(baseUrl + "notes/stream")
+                .build();
+
+        return client.newWebSocket(request, listener);
+    }
+
+    // Batch Methods
+    // =============
+
+    /**
+     * Fetch many notes at once.
+     * <p>
+     * This uses the server's bulk route in a single round trip. If the server doesn't have one,
+     * or won't take the request, we fall back to firing the single GETs all at once through our
+     * one client, so they share its pooled connection(s) instead of being made one after another.
+     *
+     * @param titles the titles of the notes to fetch
+     * @return the notes that exist on the server, in no particular order.
+     */
+    @WorkerThread
+    public List<Note> getNotes(List<String> titles) {
+        return await(getNotesAsync(titles), List.of());
+    }
+
+    /** Like {@link #getNotes(List)}, without blocking. */
+    @AnyThread
+    public CompletableFuture<List<Note>> getNotesAsync(List<String> titles) {
+        if (titles.isEmpty()) return CompletableFuture.completedFuture(List.of());
+
+        var result = new CompletableFuture<List<Note>>();
+        CompletableFuture<List<Note>> bulk = CompletableFuture.completedFuture(null);
+
+        if (bulkSupported) {
+            var array = new JsonArray();
+            titles.forEach(array::add);
+            var json = new JsonObject();
+            json.add("titles", array);
+
+            var request = new Request.Builder()
+                    .url(baseUrl + "notes/batch")
+                    .method("POST", RequestBody.create(json.toString(), JSON))
+                    .build();
+
+            bulk = enqueue(request, result, response -> {
+                if (response.isSuccessful()) {
+                    assert response.body() != null;
+                    return Note.listFromJSON(response.body().charStream());
+                }
+                if (isBatchRejected(response)) {
+                    if (isNotUnderstood(response)) bulkSupported = false;
+                    return null;
+                }
+                Log.w("GET", "Batch fetch failed: " + response.code());
+                return List.of();
+            });
+        }
+
+        bulk.thenCompose(notes -> {
+            if (notes != null) return CompletableFuture.completedFuture(notes);
+
+            var requests = new ArrayList<Request>(titles.size());
+            for (var title : titles) {
+                requests.add(new Request.Builder()
+                        .url(baseUrl + "notes/" + title.replace(" ", "%20"))
+                        .method("GET", null)
+                        .build());
+            }
+            return pipeline(requests, result, response -> {
+                if (!response.isSuccessful()) return null;
+                assert response.body() != null;
+                return Note.fromJSON(response.body().charStream());
+            });
+        }).whenComplete(completing(result));
+        return result;
+    }
+
+    /**
+     * Upload many notes at once, the same way {@link #getNotes(List)} fetches them.
+     *
+     * @param notes the notes to upload
+     * @return the notes that the server accepted.
+     */
+    @WorkerThread
+    public List<Note> putNotes(List<Note> notes) {
+        return await(putNotesAsync(notes), List.of());
+    }
+
+    /** Like {@link #putNotes(List)}, without blocking. */
+    @AnyThread
+    public CompletableFuture<List<Note>> putNotesAsync(List<Note> notes) {
+        if (notes.isEmpty()) return CompletableFuture.completedFuture(List.of());
+
+        var result = new CompletableFuture<List<Note>>();
+        CompletableFuture<List<Note>> bulk = CompletableFuture.completedFuture(null);
+
+        if (bulkSupported) {
+            var request = withJsonBody(new Request.Builder(), "PUT", Note.listToJSON(notes))
+                    .url(baseUrl + "notes/batch")
+                    .build();
+
+            bulk = enqueue(request, result, response -> {
+                if (response.isSuccessful()) {
+                    notes.forEach(this::acknowledge);
+                    return notes;
+                }
+                if (isBatchRejected(response)) {
+                    if (isNotUnderstood(response)) bulkSupported = false;
+                    return null;
+                }
+                Log.w("PUT", "Batch upload failed: " + response.code());
+                return List.of();
+            });
+        }
+
+        bulk.thenCompose(accepted -> {
+            if (accepted != null) return CompletableFuture.completedFuture(accepted);
+
+            var requests = new ArrayList<Request>(notes.size());
+            for (var note : notes) {
+                requests.add(putRequest(note));
+            }
+            return pipeline(requests, result, response -> {
+                if (!response.isSuccessful()) return null;
+                var note = response.request().tag(Note.class);
+                acknowledge(note);
+                return note;
+            });
+        }).whenComplete(completing(result));
+        return result;
+    }
+
+    // Incremental Sync
+    // ================
+
+    /** A page of the notes that changed on the server, from {@link #getChangesAsync(long)}. */
+    public static class Changes {
+        /** The notes that changed, each as it is now. */
+        @SerializedName("notes")
+        public List<Note> notes;
+
+        /** Where this page ends, to ask for the next one from. Only the server knows what it counts. */
+        @SerializedName("cursor")
+        public long cursor;
+
+        /** Whether there are more changes after this page. */
+        @SerializedName("more")
+        public boolean more;
+
+        public Changes(List<Note> notes, long cursor, boolean more) {
+            this.notes = notes;
+            this.cursor = cursor;
+            this.more = more;
+        }
+    }
+
+    /**
+     * Fetch the notes that changed on the server since a cursor, so syncing costs time in
+     * proportion to what changed rather than to how many notes there are.
+     *
+     * @param since the cursor of the last page we applied, or 0 to start from the beginning
+     * @return a page of changes, or null if the server has none for us.
+     */
+    @WorkerThread
+    public Changes getChanges(long since) {
+        return await(getChangesAsync(since), null);
+    }
+
+    /**
+     * Like {@link #getChanges(long)}, without blocking.
+     *
+     * @return a future of a page of changes, or of null if the server has no changes feed, in
+     *         which case callers have to fetch every note instead. It fails if the server couldn't
+     *         be reached or answered with an error.
+     */
+    @AnyThread
+    public CompletableFuture<Changes> getChangesAsync(long since) {
+        if (!changesSupported) return CompletableFuture.completedFuture(null);
 
         var request = new Request.Builder()
-                .url("https://sharednotes.goto.ucsd.edu/notes/" + note.title)
-                .method("PUT", msg)
+                .url(baseUrl + "notes/changes?since=" + since + "&limit=" + CHANGES_PAGE_SIZE)
+                .method("GET", null)
                 .build();
 
-        try (var response = client.newCall(request).execute()) {
+        return enqueue(request, response -> {
+            if (isMissingRoute(response)) {
+                changesSupported = false;
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Changes since " + since + " failed: " + response.code());
+            }
+
+            // Without a changes feed, a server may take "changes" for a note's title, and send
+            // that note (if there is one). A page of changes always says where it ends.
             assert response.body() != null;
-            var body = response.body().string();
-            Log.i("PUT", body);
-        } catch (Exception e) {
-            e.printStackTrace();
+            var json = JsonParser.parseReader(response.body().charStream());
+            if (!isChangesPage(json)) {
+                changesSupported = false;
+                return null;
+            }
+            var changes = GSON.fromJson(json, Changes.class);
+            changes.notes.forEach(this::acknowledge);
+            Log.i("GET", changes.notes.size() + " changes since " + since);
+            return changes;
+        });
+    }
+
+    private static boolean isChangesPage(JsonElement json) {
+        if (!json.isJsonObject()) return false;
+        var object = json.getAsJsonObject();
+        return object.has("cursor") && object.has("notes") && object.get("notes").isJsonArray();
+    }
+
+    /**
+     * The hashes of some nodes of the server's {@link MerkleNode hash tree}, in the same order.
+     *
+     * @return a future of the hashes, or of null if the server has no hash tree. It fails if the
+     *         server couldn't be reached or answered with an error.
+     */
+    @AnyThread
+    public CompletableFuture<List<Long>> getTreeHashesAsync(List<Integer> ids) {
+        if (!treeSupported) return CompletableFuture.completedFuture(null);
+
+        var array = new JsonArray();
+        ids.forEach(array::add);
+        var json = new JsonObject();
+        json.add("nodes", array);
+
+        var request = withJsonBody(new Request.Builder(), "POST", json.toString())
+                .url(baseUrl + "notes/tree")
+                .build();
+
+        return enqueue(request, response -> {
+            if (isMissingRoute(response)) {
+                treeSupported = false;
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Tree hashes failed: " + response.code());
+            }
+
+            // As with the changes feed, a server without a hash tree may take "tree" for a title.
+            assert response.body() != null;
+            var body = JsonParser.parseReader(response.body().charStream());
+            var hashes = body.isJsonObject() ? GSON.fromJson(body, TreeHashes.class).hashes : null;
+            if (hashes == null || hashes.length != ids.size()) {
+                treeSupported = false;
+                return null;
+            }
+            var list = new ArrayList<Long>(hashes.length);
+            for (var hash : hashes) list.add(hash);
+            return list;
+        });
+    }
+
+    private static class TreeHashes {
+        @SerializedName("hashes")
+        long[] hashes;
+    }
+
+    /**
+     * Every note in some buckets of the server's {@link MerkleNode hash tree}.
+     *
+     * @return a future of the notes' entries. It fails if the server couldn't be reached or
+     *         answered with an error.
+     */
+    @AnyThread
+    public CompletableFuture<List<MerkleNode.Entry>> getTreeEntriesAsync(List<Integer> buckets) {
+        var array = new JsonArray();
+        buckets.forEach(array::add);
+        var json = new JsonObject();
+        json.add("buckets", array);
+
+        var request = withJsonBody(new Request.Builder(), "POST", json.toString())
+                .url(baseUrl + "notes/tree/entries")
+                .build();
+
+        return enqueue(request, response -> {
+            if (!response.isSuccessful()) {
+                throw new IOException("Tree entries failed: " + response.code());
+            }
+
+            assert response.body() != null;
+            var entries = GSON.fromJson(response.body().charStream(), MerkleNode.Entry[].class);
+            return Arrays.asList(entries);
+        });
+    }
+
+    private Request putRequest(Note note) {
+        JsonObject json = new JsonObject();
+        json.addProperty("version", note.version);
+        json.addProperty("node", note.node);
+        json.addProperty("content", note.content);
+
+        return withJsonBody(new Request.Builder(), "PUT", json.toString())
+                .url(baseUrl + "notes/" + note.title)
+                .tag(Note.class, note)
+                .build();
+    }
+
+    /** A server without bulk routes answers them with one of these. */
+    private static boolean isMissingRoute(Response response) {
+        var code = response.code();
+        return code == 404 || code == 405 || code == 501;
+    }
+
+    /**
+     * Whether the server has no route that understands the request. Besides a missing route, a
+     * server whose per-title route also matches our bulk routes (as if "batch" were a title)
+     * rejects their bodies as invalid.
+     */
+    private static boolean isNotUnderstood(Response response) {
+        var code = response.code();
+        return isMissingRoute(response) || code == 400 || code == 422;
+    }
+
+    /**
+     * Whether the server won't take a batch as it is, but may take its notes one by one. Other
+     * errors, like 401, 403 or 429, would only be multiplied by sending the notes separately.
+     */
+    private static boolean isBatchRejected(Response response) {
+        return isNotUnderstood(response) || response.code() == 415;
+    }
+
+    // Plumbing
+    // ========
+
+    private interface ResponseParser<T> {
+        T parse(Response response) throws IOException;
+    }
+
+    /**
+     * Send a request without blocking. The response is parsed on one of OkHttp's threads, so no
+     * thread of ours sits waiting on the network.
+     *
+     * @return a future of the parsed response. It fails if the request or the parser does, and
+     *         cancelling it cancels the request.
+     */
+    @AnyThread
+    private <T> CompletableFuture<T> enqueue(Request request, ResponseParser<T> parser) {
+        var future = new CompletableFuture<T>();
+        return enqueue(request, future, future, parser);
+    }
+
+    /** Like {@link #enqueue(Request, ResponseParser)}, for one step of {@code owner}'s work. */
+    @AnyThread
+    private <T> CompletableFuture<T> enqueue(Request request, CompletableFuture<?> owner,
+                                             ResponseParser<T> parser) {
+        return enqueue(request, owner, new CompletableFuture<>(), parser);
+    }
+
+    /**
+     * Send a request, completing {@code future} with it. Cancelling {@code owner} cancels it.
+     * If the server won't take the request gzipped, it is sent again as it was before gzipping.
+     */
+    private <T> CompletableFuture<T> enqueue(Request request, CompletableFuture<?> owner,
+                                             CompletableFuture<T> future, ResponseParser<T> parser) {
+        var call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (response) {
+                    checkAcceptEncoding(response);
+                    if (isGzipRejected(response)) {
+                        Log.w("HTTP", "Server rejected a gzipped body: " + response.code());
+                        gzipRejected = true;
+                        var plain = request.tag(PlainBody.class);
+                        assert plain != null && request.body() != null;
+                        var retry = request.newBuilder()
+                                .removeHeader("Content-Encoding")
+                                .tag(PlainBody.class, null)
+                                .method(request.method(), RequestBody.create(plain.bytes, JSON))
+                                .build();
+                        enqueue(retry, owner, future, parser);
+                        return;
+                    }
+                    future.complete(parser.parse(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        owner.whenComplete((result, error) -> {
+            if (owner.isCancelled()) call.cancel();
+        });
+        return future;
+    }
+
+    /**
+     * Enqueue all requests at once, and complete once every one of them has finished. Results the
+     * parser maps to null (and failed requests) are left out.
+     */
+    @AnyThread
+    private <T> CompletableFuture<List<T>> pipeline(List<Request> requests, CompletableFuture<?> owner,
+                                                    ResponseParser<T> parser) {
+        var results = new ArrayList<CompletableFuture<T>>(requests.size());
+        for (var request : requests) {
+            results.add(enqueue(request, owner, parser).exceptionally(e -> {
+                e.printStackTrace();
+                return null;
+            }));
         }
 
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).thenApply(done -> {
+            var parsed = new ArrayList<T>(results.size());
+            for (var result : results) {
+                var value = result.join();
+                if (value != null) parsed.add(value);
+            }
+            return parsed;
+        });
+    }
+
+    /** Pass how a chain of steps ended on to {@code result}, unless it was cancelled already. */
+    private static <T> BiConsumer<T, Throwable> completing(CompletableFuture<T> result) {
+        return (value, error) -> {
+            if (error != null) result.completeExceptionally(error);
+            else result.complete(value);
+        };
+    }
+
+    /**
+     * Wait for an async call, for the blocking versions of our methods. If we are interrupted
+     * while waiting, the call is cancelled.
+     *
+     * @return the call's result, or {@code fallback} if it failed.
+     */
+    @WorkerThread
+    private static <T> T await(CompletableFuture<T> future, T fallback) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return fallback;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return fallback;
+        }
     }
 }
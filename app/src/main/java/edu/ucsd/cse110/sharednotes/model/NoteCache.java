@@ -0,0 +1,103 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.collection.LruCache;
+
+/**
+ * The notes we have seen most recently, kept in memory so that reopening a note can show it
+ * right away instead of waiting for the database.
+ * <p>
+ * The cache is bounded by the (approximate) number of bytes its notes take up rather than by
+ * how many there are, since one long note can outweigh hundreds of short ones. It holds copies,
+ * so callers are free to edit the notes they get from it.
+ */
+public class NoteCache {
+    /** A snapshot of how well the cache is doing, e.g. to tune its size. */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long sizeBytes;
+        public final long maxBytes;
+
+        Stats(long hits, long misses, long evictions, long sizeBytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.sizeBytes = sizeBytes;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /** A rough guess at the fixed cost of a cached note: its object, strings, and map entry. */
+    private static final int OVERHEAD_BYTES = 96;
+
+    private volatile static NoteCache instance = null;
+
+    private final LruCache<String, Note> notes;
+
+    public NoteCache(int maxBytes) {
+        this.notes = new LruCache<>(maxBytes) {
+            @Override
+            protected int sizeOf(@NonNull String title, @NonNull Note note) {
+                return NoteCache.sizeOf(note);
+            }
+        };
+    }
+
+    public synchronized static NoteCache provide() {
+        if (instance == null) {
+            instance = new NoteCache(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public synchronized static void inject(NoteCache testCache) {
+        instance = testCache;
+    }
+
+    /** A copy of the cached note with this title, or null if it isn't cached. */
+    @AnyThread
+    @Nullable
+    public Note get(String title) {
+        var note = notes.get(title);
+        return note == null ? null : copy(note);
+    }
+
+    /** Cache a copy of the note, replacing whatever we had for its title. */
+    @AnyThread
+    public void put(Note note) {
+        if (note == null || note.title == null || note.content == null) return;
+        notes.put(note.title, copy(note));
+    }
+
+    /** Forget a note, e.g. because it is about to change. */
+    @AnyThread
+    public void invalidate(String title) {
+        notes.remove(title);
+    }
+
+    @AnyThread
+    public Stats getStats() {
+        // LruCache guards its counters with its own lock, so this is a consistent snapshot.
+        synchronized (notes) {
+            return new Stats(notes.hitCount(), notes.missCount(), notes.evictionCount(),
+                notes.size(), notes.maxSize());
+        }
+    }
+
+    /** Strings are UTF-16 in memory, so two bytes per character. */
+    private static int sizeOf(Note note) {
+        return OVERHEAD_BYTES + 2 * (note.title.length() + note.content.length());
+    }
+
+    private static Note copy(Note note) {
+        return new Note(note.title, note.content, note.version, note.node);
+    }
+}
@@ -0,0 +1,201 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A piece of the content of a long note, stored once per distinct content no matter how many
+ * notes (or versions of a note) contain it.
+ * <p>
+ * Long notes are cut into chunks where a rolling hash of the last few dozen characters hits a
+ * certain pattern, rather than at fixed offsets. An edit then only changes the chunks it
+ * touches: the cut points around it move along with the text, so every other chunk comes out
+ * the same as before, and doesn't need to be written again.
+ * <p>
+ * Chunks can be stored {@link #packed() compressed}. Only whole notes are read from chunks, never
+ * previews or search results, so they are only decompressed when a note is opened.
+ */
+@Entity(tableName = "note_chunks")
+public class NoteChunk {
+    /** Notes at least this long are stored in chunks; shorter ones are stored inline. */
+    public static final int MIN_NOTE_LENGTH = 64 * 1024;
+
+    /** Every hash is this many hex characters, so a list of them needs no separators. */
+    public static final int HASH_LENGTH = 32;
+
+    /** {@link #encoding} of a chunk stored as is, in {@link #data}. */
+    public static final int PLAIN = 0;
+
+    /** {@link #encoding} of a chunk stored deflated, in {@link #packed}. */
+    public static final int DEFLATE = 1;
+
+    private static final int MIN_SIZE = 2 * 1024;
+    private static final int MAX_SIZE = 32 * 1024;
+
+    /** Cut when the top 13 bits of the rolling hash are 0: on average every 8K characters. */
+    private static final long CUT_MASK = ((1L << 13) - 1) << (64 - 13);
+
+    /**
+     * Random values for the rolling ("gear") hash. The seed is fixed: changing it would move
+     * every cut point, and with them every chunk already stored.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        var random = new Random(0x5eed_c0de);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    /** A hash of {@link #data}, as {@link #HASH_LENGTH} hex characters. */
+    @PrimaryKey
+    @NonNull
+    public String hash;
+
+    /** The text of a {@link #PLAIN} chunk, or empty. */
+    @NonNull
+    public String data;
+
+    /** How many stored notes use this chunk. It is deleted once none do. */
+    public int refs;
+
+    @ColumnInfo(defaultValue = "0")
+    public int encoding = PLAIN;
+
+    /** The compressed text of a chunk that isn't {@link #PLAIN}, or null. */
+    @Nullable
+    public byte[] packed;
+
+    public NoteChunk(@NonNull String hash, @NonNull String data, int refs) {
+        this.hash = hash;
+        this.data = data;
+        this.refs = refs;
+    }
+
+    public static NoteChunk of(String data) {
+        return new NoteChunk(hashOf(data), data, 0);
+    }
+
+    /** Cut a note's content into chunks, which join back up into the same content. */
+    public static List<NoteChunk> split(String content) {
+        var chunks = new ArrayList<NoteChunk>();
+        int start = 0;
+        long hash = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xff];
+
+            int size = i + 1 - start;
+            if (size < MIN_SIZE) continue;
+            if ((hash & CUT_MASK) != 0 && size < MAX_SIZE) continue;
+            // Never cut a surrogate pair in half; cut right after it instead.
+            if (Character.isHighSurrogate(c) && i + 1 < content.length()) continue;
+
+            chunks.add(of(content.substring(start, i + 1)));
+            start = i + 1;
+            hash = 0;
+        }
+        if (start < content.length()) chunks.add(of(content.substring(start)));
+        return chunks;
+    }
+
+    /** The hashes of some chunks, as stored in {@link Note#chunks}. */
+    public static String join(List<NoteChunk> chunks) {
+        var hashes = new StringBuilder(chunks.size() * HASH_LENGTH);
+        for (var chunk : chunks) hashes.append(chunk.hash);
+        return hashes.toString();
+    }
+
+    /** The hashes in a {@link Note#chunks} list, in order. */
+    public static List<String> hashesOf(String joined) {
+        var hashes = new ArrayList<String>(joined.length() / HASH_LENGTH);
+        for (int i = 0; i + HASH_LENGTH <= joined.length(); i += HASH_LENGTH) {
+            hashes.add(joined.substring(i, i + HASH_LENGTH));
+        }
+        return hashes;
+    }
+
+    /** The text of the chunk, decompressed if it has to be. */
+    public String getText() {
+        if (encoding == PLAIN) return data;
+
+        var inflater = new Inflater(true);
+        inflater.setInput(packed);
+        var text = new ByteArrayOutputStream(packed.length * 4);
+        var buffer = new byte[16 * 1024];
+        try {
+            while (!inflater.finished()) {
+                var inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Chunk " + hash + " is cut short");
+                }
+                text.write(buffer, 0, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Chunk " + hash + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return new String(text.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The chunk compressed, to be stored that way. Chunks that barely shrink (already compressed
+     * or random text, and the odd short last chunk) aren't worth decompressing, and are left as
+     * they are.
+     */
+    public NoteChunk packed() {
+        if (encoding != PLAIN) return this;
+
+        var bytes = data.getBytes(StandardCharsets.UTF_8);
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        // Anything that doesn't fit in 90% of the original isn't worth it.
+        var buffer = new byte[bytes.length * 9 / 10];
+        var length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        var finished = deflater.finished();
+        deflater.end();
+        if (!finished) return this;
+
+        var chunk = new NoteChunk(hash, "", refs);
+        chunk.encoding = DEFLATE;
+        chunk.packed = Arrays.copyOf(buffer, length);
+        return chunk;
+    }
+
+    /** The first 128 bits of the SHA-256 of the text, in hex. */
+    static String hashOf(String data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every Java platform has SHA-256", e);
+        }
+        var bytes = digest.digest(data.getBytes(StandardCharsets.UTF_8));
+
+        var hex = new StringBuilder(HASH_LENGTH);
+        for (int i = 0; i < HASH_LENGTH / 2; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
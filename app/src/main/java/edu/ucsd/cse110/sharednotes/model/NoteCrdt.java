@@ -0,0 +1,34 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The edit history of a note's text, kept next to the note so that edits others make to it can
+ * be merged in (see {@link TextCrdt}). There is at most one per title.
+ * <p>
+ * This is a snapshot: the ops applied since are appended to the {@link NoteCrdtOps log} instead
+ * of rewriting it, and folded into it every so often.
+ */
+@Entity(tableName = "note_crdts")
+public class NoteCrdt {
+    @PrimaryKey
+    @NonNull
+    public String title;
+
+    /** The note's {@link TextCrdt}, as written by {@link TextCrdt#encode()}, so without the text. */
+    @NonNull
+    public String state;
+
+    /** The {@link TextCrdt#hashOf hash} of the text the history came to. */
+    @ColumnInfo(defaultValue = "0")
+    public long hash;
+
+    public NoteCrdt(@NonNull String title, @NonNull String state, long hash) {
+        this.title = title;
+        this.state = state;
+        this.hash = hash;
+    }
+}
@@ -0,0 +1,32 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * One batch of {@link TextCrdt} ops made to or merged into a note since its {@link NoteCrdt}
+ * snapshot, so a save only writes its own edit.
+ */
+@Entity(tableName = "note_crdt_ops", indices = {@Index("title")})
+public class NoteCrdtOps {
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @NonNull
+    public String title;
+
+    /** The ops, as written by {@link TextCrdt.Op#listToJSON}. */
+    @NonNull
+    public String ops;
+
+    /** The {@link TextCrdt#hashOf hash} of the text once they were applied. */
+    public long hash;
+
+    public NoteCrdtOps(@NonNull String title, @NonNull String ops, long hash) {
+        this.title = title;
+        this.ops = ops;
+        this.hash = hash;
+    }
+}
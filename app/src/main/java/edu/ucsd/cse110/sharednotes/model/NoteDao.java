@@ -1,39 +1,547 @@
 package edu.ucsd.cse110.sharednotes.model;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
-import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Transaction;
-import androidx.room.Update;
 import androidx.room.Upsert;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
-/** Data access object for the {@link Note} class. */
+/**
+ * Data access object for the {@link Note} class.
+ * <p>
+ * Long notes are stored as a list of {@link NoteChunk chunks}, so saving a small edit to one only
+ * writes the chunks that changed, and no single row gets too big to read back. Methods that read
+ * or write whole notes take care of this; rows from {@link #get(String)} need
+ * {@link #withContent(Note)}.
+ * <p>
+ * Every save also keeps the version it replaces, as a {@link NoteVersion}, and updates the
+ * {@link MerkleNode hash tree} over all notes.
+ */
 @Dao
 public abstract class NoteDao {
+    /** SQLite allows at most 999 parameters per statement. */
+    private static final int MAX_PARAMETERS = 500;
+
+    private volatile boolean compress = true;
+
     /**
-     * In the TodoList app, our DAO used the @Insert, @Update to define methods that insert and
-     * update items from the database.
+     * The start of a note's content. Notes stored in chunks keep their start in the row too, so
+     * this never has to read (or decompress) a chunk.
+     */
+    private static final String PREVIEW_COLUMN =
+        "substr(notes.content, 1, " + NotePreview.MAX_LENGTH + ") AS preview";
+
+    private static final String IS_KEYFRAME = "(content IS NOT NULL OR chunks IS NOT NULL)";
+
+    /**
+     * Insert a note, or replace the one with its title, all in one transaction.
      * <p>
-     * Here we replace both @Insert and @Update with @Upsert. An @Upsert method will insert a new
-     * item into the database if one with the title doesn't already exist, or update an existing
-     * item if it does.
+     * Long notes are stored as {@link NoteChunk chunks} shared with other notes, with just their
+     * start left in the row for previews, and chunks no note uses anymore are released. The note
+     * gets a new {@link Note#seq} for the changes feed, and its bucket of the hash tree (see
+     * {@link MerkleNode}) is updated. The version it replaces goes into its history, which is
+     * compacted once it grows past {@link NoteVersion#MAX_VERSIONS}.
+     *
+     * @return the row id of the note.
      */
+    @Transaction
+    public long upsert(Note note) {
+        var old = findRow(note.title);
+        var row = new Note(note.title, note.content, note.version, note.node);
+        row.seq = nextSeq();
+        row.bucket = MerkleNode.bucketOf(note.title);
+        row.digest = MerkleNode.digestOf(note.title, note.version, note.content);
+        updateTree(row.bucket, (old == null ? 0 : old.digest) ^ row.digest);
+
+        List<NoteChunk> chunks = List.of();
+        if (note.content.length() >= NoteChunk.MIN_NOTE_LENGTH) {
+            chunks = NoteChunk.split(note.content);
+            storeChunks(chunks);
+            row.content = note.content.substring(0, note.content.offsetByCodePoints(0, NotePreview.MAX_LENGTH));
+            row.chunks = NoteChunk.join(chunks);
+        }
+
+        var refs = new HashMap<String, Integer>();
+        for (var chunk : chunks) refs.merge(chunk.hash, 1, Integer::sum);
+        if (old != null && old.chunks != null) release(old.chunks, refs);
+        if (old != null) recordVersion(withContent(old), note.content, refs);
+        updateRefs(refs);
+
+        var id = upsertRow(row);
+        if (countVersions(note.title) > NoteVersion.MAX_VERSIONS) {
+            compactHistory(note.title, System.currentTimeMillis());
+        }
+        return id;
+    }
+
     @Upsert
-    public abstract long upsert(Note note);
+    protected abstract long upsertRow(Note note);
+
+    /**
+     * Insert a note only if there is no note with its title yet, in one statement, so there is no
+     * window between checking and inserting.
+     *
+     * @return the new row's id, or -1 if the note already existed.
+     */
+    @Transaction
+    public long insertIfAbsent(Note note) {
+        var row = new Note(note.title, note.content, note.version, note.node);
+        row.seq = nextSeq();
+        row.bucket = MerkleNode.bucketOf(note.title);
+        row.digest = MerkleNode.digestOf(note.title, note.version, note.content);
+        var id = insertRow(row);
+        if (id != -1) updateTree(row.bucket, row.digest);
+        return id;
+    }
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    protected abstract long insertRow(Note note);
 
     @Query("SELECT EXISTS(SELECT 1 FROM notes WHERE title = :title)")
     public abstract boolean exists(String title);
 
+    /** Observe a note's row. Long notes need {@link #withContent(Note)} to read their content. */
     @Query("SELECT * FROM notes WHERE title = :title")
     public abstract LiveData<Note> get(String title);
 
-    @Query("SELECT * FROM notes ORDER BY title")
-    public abstract LiveData<List<Note>> getAll();
+    /**
+     * Page through every note for the note list. Only the columns the list shows are read, and
+     * only the start of each note's content, so long notes cost the list next to nothing.
+     */
+    @Query("SELECT title, " + PREVIEW_COLUMN + ", version FROM notes ORDER BY title")
+    public abstract PagingSource<Integer, NotePreview> getPreviews();
+
+    /**
+     * Full-text search over titles and contents, using the {@link NoteFts} index rather than
+     * scanning every note. Pages through {@link NotePreview previews} just like
+     * {@link #getPreviews()}. Notes long enough to be stored in chunks are matched by their title
+     * and their start only.
+     * <p>
+     * Every word in the query must match the start of some word in the note, so results narrow
+     * down as the user types. Notes whose title contains the query come first, then the rest,
+     * each by title.
+     */
+    public PagingSource<Integer, NotePreview> search(String query) {
+        var match = new StringBuilder();
+        for (var word : query.trim().split("\\s+")) {
+            // Quote each word, so FTS operators typed by the user are taken literally. FTS4 can't
+            // escape a quote inside quotes, so those are dropped, and so are words with nothing
+            // to match, like "(", which would match no note at all.
+            var literal = word.replace("\"", "");
+            if (literal.codePoints().noneMatch(Character::isLetterOrDigit)) continue;
+            // A prefix query: the star goes inside the quotes.
+            match.append('"').append(literal).append("*\" ");
+        }
+        return searchMatching(match.toString().trim(), query.trim());
+    }
+
+    /**
+     * @param match an FTS4 match expression, e.g. {@code "groc*"}
+     * @param term  the raw search term, used for ranking
+     */
+    @Query("SELECT notes.title, " + PREVIEW_COLUMN + ", notes.version FROM notes "
+        + "JOIN notes_fts ON notes.rowid = notes_fts.rowid "
+        + "WHERE notes_fts MATCH :match "
+        + "ORDER BY instr(lower(notes.title), lower(:term)) = 0, notes.title")
+    protected abstract PagingSource<Integer, NotePreview> searchMatching(String match, String term);
+
+    /** Like {@link #get(String)}, but reads the whole note right away instead of observing it. */
+    @Transaction
+    public Note find(String title) {
+        return withContent(findRow(title));
+    }
+
+    @Query("SELECT * FROM notes WHERE title = :title")
+    protected abstract Note findRow(String title);
+
+    /**
+     * Fill in the content of a note stored in chunks.
+     *
+     * @return the same note.
+     */
+    @Transaction
+    public Note withContent(Note row) {
+        if (row == null || row.chunks == null) return row;
+
+        row.content = assemble(row.chunks);
+        return row;
+    }
+
+    @Query("SELECT title FROM notes ORDER BY title")
+    public abstract List<String> getAllTitles();
+
+    /**
+     * Apply a batch of notes fetched from the server, all in one transaction. Like the single-note
+     * sync in the repository, a remote note only replaces the local one if it is newer.
+     *
+     * @return the number of notes that were updated.
+     */
+    @Transaction
+    public int upsertNewer(List<Note> notes) {
+        int updated = 0;
+        for (var note : notes) {
+            var ours = findRow(note.title);
+            if (note.isNewerThan(ours)) {
+                upsert(note);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Apply a page of the server's changes, and move the sync cursor past them in the same
+     * transaction, so a sync that is cut short picks up right where it left off.
+     *
+     * @return the number of notes that were updated.
+     */
+    @Transaction
+    public int upsertChanges(List<Note> notes, long cursor) {
+        var updated = upsertNewer(notes);
+        setCursor(new SyncCursor(SyncCursor.SERVER, cursor));
+        return updated;
+    }
+
+    /**
+     * The notes saved to this database since {@code seq}, oldest change first. A note saved
+     * several times only shows up once, at its latest {@link Note#seq}, so paging on by the last
+     * note's seq doesn't miss or repeat anything.
+     */
+    @Transaction
+    public List<Note> getChangedSince(long seq, int limit) {
+        var rows = getRowsChangedSince(seq, limit);
+        for (var row : rows) withContent(row);
+        return rows;
+    }
+
+    @Query("SELECT * FROM notes WHERE seq > :seq ORDER BY seq LIMIT :limit")
+    protected abstract List<Note> getRowsChangedSince(long seq, int limit);
+
+    /** Where the list of changes called {@code name} is at, or 0 if it hasn't started. */
+    @Query("SELECT IFNULL((SELECT value FROM sync_cursors WHERE name = :name), 0)")
+    public abstract long getCursor(String name);
+
+    @Upsert
+    protected abstract void setCursor(SyncCursor cursor);
+
+    /** The next {@link Note#seq}. Never one that was handed out before, even to a deleted note. */
+    private long nextSeq() {
+        var seq = getCursor(SyncCursor.LOCAL) + 1;
+        setCursor(new SyncCursor(SyncCursor.LOCAL, seq));
+        return seq;
+    }
+
+    public int delete(Note note) {
+        return delete(note.title);
+    }
+
+    /** Delete a note, along with its history. */
+    @Transaction
+    public int delete(String title) {
+        var old = findRow(title);
+        if (old == null) return 0;
+
+        var refs = new HashMap<String, Integer>();
+        updateTree(old.bucket, old.digest);
+        if (old.chunks != null) release(old.chunks, refs);
+        for (var chunks : getKeyframeChunks(title)) release(chunks, refs);
+        updateRefs(refs);
+
+        deleteHistory(title);
+        return deleteRow(title);
+    }
+
+    @Query("DELETE FROM notes WHERE title = :title")
+    protected abstract int deleteRow(String title);
+
+    // Hash Tree
+    // =========
+
+    /** The hashes of some {@link MerkleNode nodes} of the hash tree, in the same order. */
+    @Transaction
+    public List<Long> getTreeHashes(List<Integer> ids) {
+        var hashes = new HashMap<Integer, Long>();
+        for (int i = 0; i < ids.size(); i += MAX_PARAMETERS) {
+            for (var node : findNodes(ids.subList(i, Math.min(i + MAX_PARAMETERS, ids.size())))) {
+                hashes.put(node.id, node.hash);
+            }
+        }
+
+        var ordered = new ArrayList<Long>(ids.size());
+        for (var id : ids) ordered.add(hashes.getOrDefault(id, 0L));
+        return ordered;
+    }
+
+    /** Every note in some buckets, as far as comparing them goes. */
+    @Transaction
+    public List<MerkleNode.Entry> getTreeEntries(List<Integer> buckets) {
+        var entries = new ArrayList<MerkleNode.Entry>();
+        for (int i = 0; i < buckets.size(); i += MAX_PARAMETERS) {
+            entries.addAll(findEntries(buckets.subList(i, Math.min(i + MAX_PARAMETERS, buckets.size()))));
+        }
+        return entries;
+    }
+
+    /** XOR a change in a bucket's digests into every node above it. */
+    private void updateTree(int bucket, long delta) {
+        if (delta == 0) return;
+
+        var path = MerkleNode.pathTo(bucket);
+        var hashes = getTreeHashes(path);
+        var nodes = new ArrayList<MerkleNode>(path.size());
+        for (int i = 0; i < path.size(); i++) {
+            nodes.add(new MerkleNode(path.get(i), hashes.get(i) ^ delta));
+        }
+        upsertNodes(nodes);
+    }
+
+    @Query("SELECT * FROM merkle_nodes WHERE id IN (:ids)")
+    protected abstract List<MerkleNode> findNodes(List<Integer> ids);
+
+    @Upsert
+    protected abstract void upsertNodes(List<MerkleNode> nodes);
+
+    @Query("SELECT title, version, node, digest FROM notes WHERE bucket IN (:buckets)")
+    protected abstract List<MerkleNode.Entry> findEntries(List<Integer> buckets);
+
+    // History
+    // =======
+
+    /** Every kept version of a note, newest first. */
+    @Query("SELECT title, seq, version, node FROM note_versions WHERE title = :title ORDER BY seq DESC")
+    public abstract List<NoteVersion.Summary> getHistory(String title);
+
+    /**
+     * Get an earlier version of a note back: start from the nearest newer version that was kept
+     * whole (or the note itself), and undo the edits in between.
+     *
+     * @return the version as a note, or null if it wasn't kept.
+     */
+    @Transaction
+    public Note getVersion(String title, long seq) {
+        var chain = getVersionChain(title, seq);
+        if (chain.isEmpty() || chain.get(chain.size() - 1).seq != seq) return null;
+
+        String content = null;
+        for (var version : chain) {
+            if (version.isKeyframe()) {
+                content = contentOf(version);
+                continue;
+            }
+            if (content == null) {
+                var note = find(title);
+                if (note == null) return null;
+                content = note.content;
+            }
+            content = version.undo(content);
+        }
+
+        var target = chain.get(chain.size() - 1);
+        return new Note(title, content, target.version, target.node);
+    }
+
+    /**
+     * Thin out a note's history. Of the versions older than {@link NoteVersion#DETAIL_MS}, only
+     * the last one of each hour stays, and only the newest 3/4 of {@link NoteVersion#MAX_VERSIONS}
+     * versions stay overall. Versions next to the ones that go are re-encoded against their new
+     * neighbours.
+     *
+     * @return how many versions were dropped.
+     */
+    @Transaction
+    public int compactHistory(String title, long now) {
+        var current = find(title);
+        if (current == null) return 0;
+
+        var refs = new HashMap<String, Integer>();
+        // The content of the version before (newer than) the one we're at, and of the last one kept.
+        var newer = current.content;
+        var keptNewer = current.content;
+        var rewrite = false;
+        int kept = 0;
+        int dropped = 0;
+        int deltas = 0;
+        long lastBucket = -1;
+        for (var version : getVersions(title)) {
+            var content = version.isKeyframe() ? contentOf(version) : version.undo(newer);
+            newer = content;
+
+            var millis = HybridClock.millisOf(version.version);
+            var old = millis < now - NoteVersion.DETAIL_MS;
+            var bucket = millis / NoteVersion.BUCKET_MS;
+            if (kept >= NoteVersion.MAX_VERSIONS * 3 / 4 || (old && bucket == lastBucket)) {
+                if (version.chunks != null) release(version.chunks, refs);
+                deleteVersion(title, version.seq);
+                dropped++;
+                // Everything older now has a different newer neighbour.
+                rewrite = true;
+                continue;
+            }
+            if (old) lastBucket = bucket;
+            kept++;
+
+            if (rewrite) {
+                if (version.chunks != null) release(version.chunks, refs);
+                var note = new Note(title, content, version.version, version.node);
+                version = deltas >= NoteVersion.KEYFRAME_INTERVAL - 1
+                    ? keyframe(note, version.seq, refs)
+                    : NoteVersion.delta(note, version.seq, keptNewer);
+                upsertVersion(version);
+            }
+            deltas = version.isKeyframe() ? 0 : deltas + 1;
+            keptNewer = content;
+        }
+
+        updateRefs(refs);
+        return dropped;
+    }
+
+    /**
+     * Keep the version of a note a save is about to replace, as a delta, or whole every so often.
+     * Chunks a whole version uses are counted in {@code refs}.
+     */
+    private void recordVersion(Note old, String newer, Map<String, Integer> refs) {
+        if (old.content.equals(newer)) return;
+
+        var seq = getLastVersionSeq(old.title) + 1;
+        if (countDeltasSinceKeyframe(old.title) >= NoteVersion.KEYFRAME_INTERVAL - 1) {
+            upsertVersion(keyframe(old, seq, refs));
+        } else {
+            upsertVersion(NoteVersion.delta(old, seq, newer));
+        }
+    }
+
+    /** A whole version. Long ones go in chunks, which they mostly share with the note itself. */
+    private NoteVersion keyframe(Note note, long seq, Map<String, Integer> refs) {
+        if (note.content.length() < NoteChunk.MIN_NOTE_LENGTH) return NoteVersion.keyframe(note, seq, null);
+
+        var chunks = NoteChunk.split(note.content);
+        storeChunks(chunks);
+        for (var chunk : chunks) refs.merge(chunk.hash, 1, Integer::sum);
+        return NoteVersion.keyframe(note, seq, NoteChunk.join(chunks));
+    }
+
+    private String contentOf(NoteVersion keyframe) {
+        return keyframe.content != null ? keyframe.content : assemble(keyframe.chunks);
+    }
+
+    @Upsert
+    protected abstract void upsertVersion(NoteVersion version);
+
+    @Query("SELECT * FROM note_versions WHERE title = :title ORDER BY seq DESC")
+    protected abstract List<NoteVersion> getVersions(String title);
+
+    /** A version, and every version after it up to the nearest whole one, newest first. */
+    @Query("SELECT * FROM note_versions WHERE title = :title AND seq >= :seq AND seq <= IFNULL("
+        + "(SELECT MIN(seq) FROM note_versions WHERE title = :title AND seq >= :seq AND " + IS_KEYFRAME + "), "
+        + "(SELECT MAX(seq) FROM note_versions WHERE title = :title)) "
+        + "ORDER BY seq DESC")
+    protected abstract List<NoteVersion> getVersionChain(String title, long seq);
+
+    @Query("SELECT COUNT(*) FROM note_versions WHERE title = :title AND seq > IFNULL("
+        + "(SELECT MAX(seq) FROM note_versions WHERE title = :title AND " + IS_KEYFRAME + "), 0)")
+    protected abstract int countDeltasSinceKeyframe(String title);
+
+    @Query("SELECT IFNULL(MAX(seq), 0) FROM note_versions WHERE title = :title")
+    protected abstract long getLastVersionSeq(String title);
+
+    @Query("SELECT COUNT(*) FROM note_versions WHERE title = :title")
+    protected abstract int countVersions(String title);
+
+    @Query("SELECT chunks FROM note_versions WHERE title = :title AND chunks IS NOT NULL")
+    protected abstract List<String> getKeyframeChunks(String title);
+
+    @Query("DELETE FROM note_versions WHERE title = :title AND seq = :seq")
+    protected abstract int deleteVersion(String title, long seq);
+
+    @Query("DELETE FROM note_versions WHERE title = :title")
+    protected abstract int deleteHistory(String title);
+
+    // Chunks
+    // ======
+
+    /**
+     * Whether to store new chunks compressed. Text typically shrinks to a third or less, for a
+     * little more time spent saving and opening long notes. Chunks already stored stay as they are.
+     */
+    public void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** Put content stored in chunks back together. */
+    private String assemble(String joined) {
+        var hashes = NoteChunk.hashesOf(joined);
+        var chunks = new HashMap<String, String>();
+        for (int i = 0; i < hashes.size(); i += MAX_PARAMETERS) {
+            var batch = hashes.subList(i, Math.min(i + MAX_PARAMETERS, hashes.size()));
+            for (var chunk : findChunks(batch)) chunks.put(chunk.hash, chunk.getText());
+        }
+
+        var content = new StringBuilder();
+        for (var hash : hashes) content.append(chunks.get(hash));
+        return content.toString();
+    }
+
+    /**
+     * Store the chunks we don't have yet, from this note or any other, compressed unless
+     * {@link #setCompression(boolean) turned off}. The ones we have are left alone.
+     */
+    private void storeChunks(List<NoteChunk> chunks) {
+        var stored = new HashSet<String>();
+        for (int i = 0; i < chunks.size(); i += MAX_PARAMETERS) {
+            var batch = new ArrayList<String>(MAX_PARAMETERS);
+            for (var chunk : chunks.subList(i, Math.min(i + MAX_PARAMETERS, chunks.size()))) batch.add(chunk.hash);
+            stored.addAll(findStoredChunks(batch));
+        }
+
+        var added = new ArrayList<NoteChunk>();
+        for (var chunk : chunks) {
+            if (stored.add(chunk.hash)) added.add(compress ? chunk.packed() : chunk);
+        }
+        insertChunks(added);
+    }
+
+    private static void release(String joined, Map<String, Integer> refs) {
+        for (var hash : NoteChunk.hashesOf(joined)) refs.merge(hash, -1, Integer::sum);
+    }
+
+    /**
+     * Apply changes to how many notes use each chunk, and delete the chunks nobody uses anymore.
+     * Only chunks whose count changed are touched, so a small edit to a long note writes little.
+     */
+    private void updateRefs(Map<String, Integer> changes) {
+        var released = new ArrayList<String>();
+        for (var change : changes.entrySet()) {
+            if (change.getValue() == 0) continue;
+            addRefs(change.getKey(), change.getValue());
+            if (change.getValue() < 0) released.add(change.getKey());
+        }
+        for (int i = 0; i < released.size(); i += MAX_PARAMETERS) {
+            deleteUnusedChunks(released.subList(i, Math.min(i + MAX_PARAMETERS, released.size())));
+        }
+    }
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    protected abstract void insertChunks(List<NoteChunk> chunks);
+
+    @Query("SELECT * FROM note_chunks WHERE hash IN (:hashes)")
+    protected abstract List<NoteChunk> findChunks(List<String> hashes);
+
+    @Query("SELECT hash FROM note_chunks WHERE hash IN (:hashes)")
+    protected abstract List<String> findStoredChunks(List<String> hashes);
+
+    @Query("UPDATE note_chunks SET refs = refs + :delta WHERE hash = :hash")
+    protected abstract int addRefs(String hash, int delta);
 
-    @Delete
-    public abstract int delete(Note note);
+    @Query("DELETE FROM note_chunks WHERE hash IN (:hashes) AND refs <= 0")
+    protected abstract int deleteUnusedChunks(List<String> hashes);
 }
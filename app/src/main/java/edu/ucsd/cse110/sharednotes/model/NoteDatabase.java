@@ -2,17 +2,227 @@ package edu.ucsd.cse110.sharednotes.model;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = {Note.class}, version = 2, exportSchema = false)
+@Database(
+    entities = {Note.class, PendingUpload.class, NoteFts.class, NoteCrdt.class, NoteChunk.class, NoteVersion.class,
+        SyncCursor.class, MerkleNode.class, NoteCrdtOps.class},
+    version = 12,
+    exportSchema = false
+)
 public abstract class NoteDatabase extends RoomDatabase {
     private volatile static NoteDatabase instance = null;
 
     public abstract NoteDao getDao();
 
+    public abstract OutboxDao getOutboxDao();
+
+    public abstract CrdtDao getCrdtDao();
+
+    /** Version 3 adds the outbox of saves waiting to be uploaded. */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` ("
+                + "`title` TEXT NOT NULL, "
+                + "`content` TEXT NOT NULL, "
+                + "`version` INTEGER NOT NULL, "
+                + "`attempts` INTEGER NOT NULL, "
+                + "`nextAttemptAt` INTEGER NOT NULL, "
+                + "`enqueuedAt` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`title`))");
+        }
+    };
+
+    /**
+     * Version 4 adds the full-text index over notes. These are the same table and triggers Room
+     * creates for {@link NoteFts} in a fresh database; the index is then built from existing notes.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4("
+                + "`title` TEXT NOT NULL, `content` TEXT NOT NULL, content=`notes`)");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE "
+                + "BEFORE UPDATE ON `notes` BEGIN "
+                + "DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE "
+                + "BEFORE DELETE ON `notes` BEGIN "
+                + "DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE "
+                + "AFTER UPDATE ON `notes` BEGIN "
+                + "INSERT INTO `notes_fts`(`docid`, `title`, `content`) "
+                + "VALUES (NEW.`rowid`, NEW.`title`, NEW.`content`); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT "
+                + "AFTER INSERT ON `notes` BEGIN "
+                + "INSERT INTO `notes_fts`(`docid`, `title`, `content`) "
+                + "VALUES (NEW.`rowid`, NEW.`title`, NEW.`content`); END");
+            db.execSQL("INSERT INTO `notes_fts`(`notes_fts`) VALUES ('rebuild')");
+        }
+    };
+
+    /** Version 5 adds the edit history of each note, for merging concurrent edits. */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_crdts` ("
+                + "`title` TEXT NOT NULL, "
+                + "`state` TEXT NOT NULL, "
+                + "PRIMARY KEY(`title`))");
+        }
+    };
+
+    /**
+     * Version 6 versions notes with a hybrid logical clock, which needs the id of the clock that
+     * made each version to break ties. Existing versions were plain counters, so they stay as
+     * they are: they are older than any clock version.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `node` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `outbox` ADD COLUMN `node` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 7 stores long notes in chunks. Notes that are already long move into chunks the
+     * next time they are saved.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_chunks` ("
+                + "`hash` TEXT NOT NULL, "
+                + "`data` TEXT NOT NULL, "
+                + "`refs` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`hash`))");
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `chunks` TEXT");
+        }
+    };
+
+    /** Version 8 keeps the history of each note. */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_versions` ("
+                + "`title` TEXT NOT NULL, "
+                + "`seq` INTEGER NOT NULL, "
+                + "`version` INTEGER NOT NULL, "
+                + "`node` INTEGER NOT NULL, "
+                + "`content` TEXT, "
+                + "`chunks` TEXT, "
+                + "`patchOffset` INTEGER NOT NULL, "
+                + "`patchDelete` INTEGER NOT NULL, "
+                + "`patchInsert` TEXT, "
+                + "PRIMARY KEY(`title`, `seq`))");
+        }
+    };
+
+    /**
+     * Version 9 numbers every save, so the notes changed since some point can be looked up in an
+     * index, and remembers how far we have synced. Existing notes are numbered in the order they
+     * were first inserted, and the server's changes are synced from the start.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `seq` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE `notes` SET `seq` = `rowid`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_seq` ON `notes` (`seq`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `sync_cursors` ("
+                + "`name` TEXT NOT NULL, "
+                + "`value` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`name`))");
+            db.execSQL("INSERT INTO `sync_cursors` (`name`, `value`) "
+                + "SELECT 'local', IFNULL(MAX(`seq`), 0) FROM `notes`");
+        }
+    };
+
+    /**
+     * Version 10 adds the hash tree over all notes. The digests of existing notes can't be worked
+     * out in SQL, so this reads every note once to build the tree.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `bucket` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `digest` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_bucket` ON `notes` (`bucket`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `merkle_nodes` ("
+                + "`id` INTEGER NOT NULL, "
+                + "`hash` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`id`))");
+
+            var hashes = new long[MerkleNode.FIRST_LEAF + MerkleNode.BUCKETS];
+            try (var notes = db.query("SELECT `title`, `version`, `content`, `chunks` FROM `notes`")) {
+                while (notes.moveToNext()) {
+                    var title = notes.getString(0);
+                    var content = notes.isNull(3) ? notes.getString(2) : assemble(db, notes.getString(3));
+                    var bucket = MerkleNode.bucketOf(title);
+                    var digest = MerkleNode.digestOf(title, notes.getLong(1), content);
+                    db.execSQL("UPDATE `notes` SET `bucket` = ?, `digest` = ? WHERE `title` = ?",
+                        new Object[]{bucket, digest, title});
+                    for (var id : MerkleNode.pathTo(bucket)) hashes[id] ^= digest;
+                }
+            }
+            for (int id = 0; id < hashes.length; id++) {
+                if (hashes[id] == 0) continue;
+                db.execSQL("INSERT INTO `merkle_nodes` (`id`, `hash`) VALUES (?, ?)",
+                    new Object[]{id, hashes[id]});
+            }
+        }
+
+        private String assemble(SupportSQLiteDatabase db, String chunks) {
+            var content = new StringBuilder();
+            for (var hash : NoteChunk.hashesOf(chunks)) {
+                try (var chunk = db.query("SELECT `data` FROM `note_chunks` WHERE `hash` = ?", new Object[]{hash})) {
+                    if (chunk.moveToFirst()) content.append(chunk.getString(0));
+                }
+            }
+            return content.toString();
+        }
+    };
+
+    /**
+     * Version 11 can store chunks compressed, and keeps the start of long notes in their row, so
+     * previews don't need their chunks. Chunks already stored stay uncompressed.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `note_chunks` ADD COLUMN `encoding` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `note_chunks` ADD COLUMN `packed` BLOB");
+            db.execSQL("UPDATE `notes` SET `content` = IFNULL((SELECT substr(`data`, 1, " + NotePreview.MAX_LENGTH + ") "
+                + "FROM `note_chunks` WHERE `hash` = substr(`notes`.`chunks`, 1, " + NoteChunk.HASH_LENGTH + ")), '') "
+                + "WHERE `chunks` IS NOT NULL");
+        }
+    };
+
+    /**
+     * Version 12 logs the ops made to a note's edit history instead of rewriting all of it on
+     * every save, and no longer stores the text in it. Existing histories start over from their
+     * note's text the next time they are used.
+     */
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `note_crdts` ADD COLUMN `hash` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_crdt_ops` ("
+                + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`title` TEXT NOT NULL, "
+                + "`ops` TEXT NOT NULL, "
+                + "`hash` INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_crdt_ops_title` ON `note_crdt_ops` (`title`)");
+        }
+    };
+
     public synchronized static NoteDatabase provide(Context context) {
         if (instance == null) {
             instance = NoteDatabase.make(context);
@@ -22,7 +232,8 @@ public abstract class NoteDatabase extends RoomDatabase {
 
     private static NoteDatabase make(Context context) {
         return Room.databaseBuilder(context, NoteDatabase.class, "note_app.db")
-                .allowMainThreadQueries()
+                .addMigrations(MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8,
+                    MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12)
                 .fallbackToDestructiveMigration()
                 .build();
     }
@@ -0,0 +1,27 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * A full-text index over the titles and contents of {@link Note notes}.
+ * <p>
+ * This is an "external content" FTS table: it doesn't store its own copy of the notes, only the
+ * index, and Room keeps it in sync with the notes table through triggers on every insert, update
+ * and delete. We never write to it ourselves; see {@link NoteDao#search(String)}.
+ */
+@Fts4(contentEntity = Note.class)
+@Entity(tableName = "notes_fts")
+public class NoteFts {
+    @NonNull
+    public String title;
+
+    @NonNull
+    public String content;
+
+    public NoteFts(@NonNull String title, @NonNull String content) {
+        this.title = title;
+        this.content = content;
+    }
+}
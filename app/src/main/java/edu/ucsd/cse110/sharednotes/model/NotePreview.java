@@ -0,0 +1,28 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What the note list shows of a {@link Note}: its title and the start of its content.
+ * <p>
+ * The list never needs a note's full content, so it queries these instead of whole notes.
+ */
+public class NotePreview {
+    /** How many characters of content a preview keeps at most. */
+    public static final int MAX_LENGTH = 100;
+
+    @NonNull
+    public final String title;
+
+    @NonNull
+    public final String preview;
+
+    /** The version of the note this preview was taken from. */
+    public final long version;
+
+    public NotePreview(@NonNull String title, @NonNull String preview, long version) {
+        this.title = title;
+        this.preview = preview;
+        this.version = version;
+    }
+}
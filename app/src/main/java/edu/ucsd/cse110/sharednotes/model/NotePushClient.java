@@ -0,0 +1,284 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Receives note updates pushed by the server over a WebSocket, instead of asking for them.
+ * <p>
+ * The client keeps one socket open while at least one title is subscribed. It tells the server
+ * which titles it cares about with {@code {"subscribe": [...]}} / {@code {"unsubscribe": [...]}}
+ * messages, and every text message it gets back is a note. When the socket drops, the listener is
+ * told so it can fall back to polling, and we try to reconnect with a growing delay.
+ * <p>
+ * While the socket is up, edits also travel over it as {@link TextCrdt} ops, in
+ * {@code {"title": ..., "version": ..., "node": ..., "ops": [...]}} messages the server relays to every other
+ * subscriber of the title. Ops sent while it is down are lost, so whenever a title is subscribed
+ * (again), the listener is told, to compare {@link TextCrdt.StateVector state vectors} with the
+ * others: those go out as an ops message without ops, {@code {"title": ..., "ops": [], "sync": {...}}}.
+ */
+public class NotePushClient extends WebSocketListener {
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 5 * 60 * 1000;
+
+    private static final Gson GSON = new Gson();
+
+    public interface Listener {
+        /** Called on a background thread with every note the server pushes. */
+        void onNote(Note note);
+
+        /**
+         * Called on a background thread with every batch of edits someone else made to a note.
+         *
+         * @param version the version of the note the sender saved with these edits
+         * @param node    the node id of the clock that made that version
+         */
+        default void onOps(String title, long version, long node, List<TextCrdt.Op> ops) {}
+
+        /** Called on a background thread with the state vector someone else sent for a note. */
+        default void onSync(String title, TextCrdt.StateVector theirs) {}
+
+        /**
+         * Called on a background thread once the server knows we want a title's updates, after
+         * {@link #subscribe} or when the socket opens again. Edits sent in between are lost.
+         */
+        default void onSubscribed(String title) {}
+
+        /** Called on a background thread whenever the socket opens or drops. */
+        void onConnectionChanged(boolean connected);
+    }
+
+    private final NoteAPI api;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+
+    private final Set<String> titles = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this.
+    private WebSocket socket;
+    private boolean connected;
+    private long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    private ScheduledFuture<?> reconnect;
+
+    public NotePushClient(NoteAPI api, ScheduledExecutorService scheduler, Listener listener) {
+        this.api = api;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /** Whether updates are currently being pushed to us. */
+    @AnyThread
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @AnyThread
+    public void subscribe(String title) {
+        synchronized (this) {
+            if (!titles.add(title)) return;
+
+            // Once the socket opens, it subscribes to everything at once.
+            if (socket == null && reconnect == null) connect();
+            if (!connected) return;
+            socket.send(message("subscribe", List.of(title)));
+        }
+        listener.onSubscribed(title);
+    }
+
+    @AnyThread
+    public synchronized void unsubscribe(String title) {
+        if (!titles.remove(title)) return;
+
+        if (titles.isEmpty()) {
+            // Nothing left to listen for, so don't keep the radio awake for it.
+            disconnect();
+        } else if (connected) {
+            socket.send(message("unsubscribe", List.of(title)));
+        }
+    }
+
+    /**
+     * Send edits to everyone else who has the note open.
+     *
+     * @return false if the socket is down, so the edits could not be sent.
+     */
+    @AnyThread
+    public synchronized boolean sendOps(String title, long version, long node, List<TextCrdt.Op> ops) {
+        if (!connected) return false;
+
+        var message = new OpsMessage();
+        message.title = title;
+        message.version = version;
+        message.node = node;
+        message.ops = ops;
+        return socket.send(GSON.toJson(message));
+    }
+
+    /**
+     * Send our state vector of a note to everyone else who has it open, so they send us what we
+     * are missing (see {@link TextCrdt#missingFrom}).
+     *
+     * @return false if the socket is down or the title isn't subscribed, so nobody would get it.
+     */
+    @AnyThread
+    public synchronized boolean sendSync(String title, TextCrdt.StateVector vector) {
+        if (!connected || !titles.contains(title)) return false;
+
+        var message = new OpsMessage();
+        message.title = title;
+        message.ops = List.of();
+        message.sync = vector;
+        return socket.send(GSON.toJson(message));
+    }
+
+    private static class OpsMessage {
+        @SerializedName("title")
+        String title;
+
+        @SerializedName("version")
+        long version;
+
+        @SerializedName("node")
+        long node;
+
+        @SerializedName("ops")
+        List<TextCrdt.Op> ops;
+
+        @SerializedName("sync")
+        @Nullable
+        TextCrdt.StateVector sync;
+    }
+
+    private void connect() {
+        reconnect = null;
+        socket = api.openNoteStream(this);
+    }
+
+    private void disconnect() {
+        if (reconnect != null) {
+            reconnect.cancel(false);
+            reconnect = null;
+        }
+        if (socket != null) {
+            socket.close(1000, null);
+            socket = null;
+        }
+        connected = false;
+        reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    }
+
+    private void scheduleReconnect() {
+        if (scheduler.isShutdown()) return;
+
+        var delay = reconnectDelay;
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+        reconnect = scheduler.schedule(() -> {
+            synchronized (this) {
+                if (socket == null && !titles.isEmpty()) connect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static String message(String type, Collection<String> titles) {
+        var array = new JsonArray();
+        titles.forEach(array::add);
+        var json = new JsonObject();
+        json.add(type, array);
+        return json.toString();
+    }
+
+    // WebSocketListener
+    // =================
+
+    @Override
+    public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+        List<String> subscribed;
+        synchronized (this) {
+            // Ignore sockets we have already given up on.
+            if (webSocket != socket) return;
+
+            connected = true;
+            reconnectDelay = MIN_RECONNECT_DELAY_MS;
+            subscribed = List.copyOf(titles);
+            webSocket.send(message("subscribe", subscribed));
+        }
+        listener.onConnectionChanged(true);
+        for (var title : subscribed) listener.onSubscribed(title);
+    }
+
+    @Override
+    public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+        Note note;
+        OpsMessage edits = null;
+        try {
+            var json = JsonParser.parseString(text).getAsJsonObject();
+            if (json.has("ops")) {
+                edits = GSON.fromJson(json, OpsMessage.class);
+                note = null;
+            } else {
+                note = Note.fromJSON(json);
+            }
+        } catch (Exception e) {
+            Log.w("PUSH", "Ignoring malformed message: " + text);
+            return;
+        }
+
+        if (edits != null) {
+            if (edits.title == null) return;
+            if (edits.sync != null) listener.onSync(edits.title, edits.sync);
+            if (edits.ops != null && !edits.ops.isEmpty()) listener.onOps(edits.title, edits.version, edits.node, edits.ops);
+            return;
+        }
+        if (note == null || note.title == null) return;
+
+        listener.onNote(note);
+    }
+
+    @Override
+    public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+        webSocket.close(1000, null);
+    }
+
+    @Override
+    public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+        onDropped(webSocket);
+    }
+
+    @Override
+    public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
+        Log.w("PUSH", "Stream failed: " + t);
+        onDropped(webSocket);
+    }
+
+    private void onDropped(WebSocket webSocket) {
+        synchronized (this) {
+            if (webSocket != socket) return;
+
+            socket = null;
+            connected = false;
+            if (!titles.isEmpty()) scheduleReconnect();
+        }
+        listener.onConnectionChanged(false);
+    }
+}
@@ -0,0 +1,130 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Finds the notes that differ between our library and the server's, by comparing their
+ * {@link MerkleNode hash trees} from the root down and only looking further into subtrees whose
+ * hashes differ.
+ * <p>
+ * With d differing notes among N, that is {@link MerkleNode#DEPTH} + 2 round trips and on the
+ * order of d times {@link MerkleNode#FANOUT} hashes per level, rather than a look at every
+ * note. If nothing differs, it is one round trip for the root hash.
+ */
+public class NoteReconciler {
+    /** Our side of the comparison. Called on the executor the reconciler was given. */
+    public interface Tree {
+        /** The hashes of some nodes, in the same order, 0 for nodes with no notes under them. */
+        @WorkerThread
+        List<Long> getHashes(List<Integer> ids);
+
+        /** Every note in some buckets. */
+        @WorkerThread
+        List<MerkleNode.Entry> getEntries(List<Integer> buckets);
+    }
+
+    /** A note that isn't the same on both sides. */
+    public static class Difference {
+        @NonNull
+        public final String title;
+
+        /** Our copy of the note, or null if we don't have it. */
+        @Nullable
+        public final MerkleNode.Entry ours;
+
+        /** The server's copy, or null if it doesn't have it. */
+        @Nullable
+        public final MerkleNode.Entry theirs;
+
+        public Difference(@NonNull String title, @Nullable MerkleNode.Entry ours, @Nullable MerkleNode.Entry theirs) {
+            this.title = title;
+            this.ours = ours;
+            this.theirs = theirs;
+        }
+
+        /** Whether the server's copy should replace ours, by the same rule as {@link Note#isNewerThan(Note)}. */
+        public boolean isTheirsNewer() {
+            if (theirs == null) return false;
+            if (ours == null) return true;
+            if (theirs.version != ours.version) return theirs.version > ours.version;
+            return theirs.node > ours.node;
+        }
+    }
+
+    private final NoteAPI api;
+    private final Tree local;
+    private final Executor localExecutor;
+
+    public NoteReconciler(NoteAPI api, Tree local, Executor localExecutor) {
+        this.api = api;
+        this.local = local;
+        this.localExecutor = localExecutor;
+    }
+
+    /**
+     * Compare the two libraries.
+     *
+     * @return a future of every note that differs, or of null if the server has no hash tree to
+     *         compare with. It fails if the server couldn't be reached.
+     */
+    @AnyThread
+    public CompletableFuture<List<Difference>> findDifferences() {
+        return compare(List.of(0));
+    }
+
+    /** Compare some nodes on one level of the tree, then whatever differs below them. */
+    private CompletableFuture<List<Difference>> compare(List<Integer> ids) {
+        var ours = CompletableFuture.supplyAsync(() -> local.getHashes(ids), localExecutor);
+        return api.getTreeHashesAsync(ids).thenCombine(ours, (theirs, mine) -> {
+            if (theirs == null) return null;
+
+            var differing = new ArrayList<Integer>();
+            for (int i = 0; i < ids.size(); i++) {
+                if (!theirs.get(i).equals(mine.get(i))) differing.add(ids.get(i));
+            }
+            return differing;
+        }).thenCompose(differing -> {
+            if (differing == null) return CompletableFuture.completedFuture(null);
+            if (differing.isEmpty()) return CompletableFuture.completedFuture(List.of());
+
+            // Every id on a level is a leaf, or none is.
+            if (MerkleNode.isLeaf(differing.get(0))) {
+                var buckets = new ArrayList<Integer>(differing.size());
+                for (var leaf : differing) buckets.add(MerkleNode.bucketAt(leaf));
+                return compareBuckets(buckets);
+            }
+
+            var children = new ArrayList<Integer>(differing.size() * MerkleNode.FANOUT);
+            for (var id : differing) children.addAll(MerkleNode.childrenOf(id));
+            return compare(children);
+        });
+    }
+
+    /** Compare the notes in some buckets one by one. */
+    private CompletableFuture<List<Difference>> compareBuckets(List<Integer> buckets) {
+        var ours = CompletableFuture.supplyAsync(() -> local.getEntries(buckets), localExecutor);
+        return api.getTreeEntriesAsync(buckets).thenCombine(ours, (theirs, mine) -> {
+            var byTitle = new HashMap<String, MerkleNode.Entry>();
+            for (var entry : mine) byTitle.put(entry.title, entry);
+
+            var differences = new ArrayList<Difference>();
+            for (var entry : theirs) {
+                var our = byTitle.remove(entry.title);
+                if (our == null || our.digest != entry.digest) {
+                    differences.add(new Difference(entry.title, our, entry));
+                }
+            }
+            for (var our : byTitle.values()) differences.add(new Difference(our.title, our, null));
+            return differences;
+        });
+    }
+}
@@ -1,25 +1,77 @@
 package edu.ucsd.cse110.sharednotes.model;
 
+import android.view.Choreographer;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
-import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
+import androidx.paging.PagingSource;
 
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class NoteRepository {
-    private final NoteDao dao;
-    private ScheduledFuture<?> poller; // what could this be for... hmm?
+    /**
+     * All of our writes to notes go through this one thread, never the main thread, including
+     * those of notes fetched from the server. SQLite only allows one writer at a time anyway, and
+     * this keeps them in the order they were made. (The upload outbox is the one table written
+     * elsewhere, by the {@link NoteUploader} on its own thread.)
+     */
+    private static final Executor DB_EXECUTOR = Executors.newSingleThreadExecutor();
 
-    public MutableLiveData<Note> noteData = new MutableLiveData<>();
+    /** Runs a task at the start of the next frame. Only call it on the main thread. */
+    private static final Executor NEXT_FRAME = task ->
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> task.run());
 
-    public NoteRepository(NoteDao dao) {
+    private final NoteDao dao;
+    private final CrdtDao crdts;
+    private final RemoteNoteSource remote;
+    private final NoteCache cache;
+    private final HybridClock clock;
+    private final Executor dbExecutor;
+
+    public NoteRepository(NoteDatabase db, NoteAPI api) {
+        this(db.getDao(), db.getCrdtDao(), RemoteNoteSource.provide(api, db.getOutboxDao()),
+            NoteCache.provide(), HybridClock.provide(), DB_EXECUTOR);
+    }
+
+    public NoteRepository(NoteDao dao, CrdtDao crdts, RemoteNoteSource remote, NoteCache cache,
+                          HybridClock clock, Executor dbExecutor) {
         this.dao = dao;
+        this.crdts = crdts;
+        this.remote = remote;
+        this.cache = cache;
+        this.clock = clock;
+        this.dbExecutor = dbExecutor;
+
+        // Every repository merges the same way into the same database, so any of them will do.
+        remote.setOpsListener(new RemoteNoteSource.OpsListener() {
+            @Override
+            public void onOps(String title, long version, long node, List<TextCrdt.Op> ops) {
+                dbExecutor.execute(() -> mergeLocal(title, version, node, ops));
+            }
+
+            @Override
+            public void onSync(String title, TextCrdt.StateVector theirs) {
+                dbExecutor.execute(() -> catchUpLocal(title, theirs));
+            }
+
+            @Override
+            public void onSubscribed(String title) {
+                dbExecutor.execute(() -> {
+                    if (dao.exists(title)) remote.putSync(title, loadCrdt(title).getStateVector());
+                });
+            }
+        });
     }
 
     // Synced Methods
@@ -31,106 +83,465 @@ public class NoteRepository {
      * however will only need to observe this one LiveData object, and don't need to care where
      * it comes from!
      * <p>
-     * This method will always prefer the newest version of the note.
+     * This method will always prefer the newest version of the note. If we saw the note recently,
+     * it starts out with that copy, so there is something to show before the database answers.
+     * After that, observers hear about each new version of the note once, at the start of a frame
+     * (see {@link #distinctNotes}).
      *
      * @param title the title of the note
      * @return a LiveData object that will be updated when the note is updated locally or remotely.
      */
+    @MainThread
     public LiveData<Note> getSynced(String title) {
         var note = new MediatorLiveData<Note>();
+        var cached = cache.get(title);
+        if (cached != null) note.setValue(cached);
+        var updates = distinctNotes(cached, NEXT_FRAME, note::setValue);
 
         Observer<Note> updateFromRemote = theirNote -> {
             var ourNote = note.getValue();
             if (theirNote == null) return; // do nothing
-            if (ourNote == null || ourNote.version < theirNote.version) {
-                upsertLocal(theirNote, false);
+            if (theirNote.isNewerThan(ourNote)) {
+                cache.invalidate(theirNote.title);
+                upsertLocalAsync(theirNote, false);
             }
         };
 
-        // If we get a local update, pass it on.
-        note.addSource(getLocal(title), note::postValue);
+        // If we get a local update, remember it and pass it on.
+        note.addSource(getLocal(title), ourNote -> {
+            cache.put(ourNote);
+            updates.emit(ourNote);
+        });
         // If we get a remote update, update the local version (triggering the above observer)
         note.addSource(getRemote(title), updateFromRemote);
 
         return note;
     }
 
-    public void upsertSynced(Note note) {
-        upsertLocal(note);
-        upsertRemote(note);
+    /**
+     * The way from a synced note's sources to its observers. Room emits the note again after
+     * every write to the notes table, whichever note it was to, and an update from the server
+     * comes back around as a local one, so the same version of a note often arrives several
+     * times, sometimes in bursts. Each version is only passed on once, and at most once per turn
+     * of {@code executor}: if the observers fall behind, they skip to the newest note.
+     *
+     * @param current what the observers have already, if anything
+     */
+    @VisibleForTesting
+    static Emissions<Note> distinctNotes(Note current, Executor executor, Consumer<Note> observer) {
+        var source = new Emissions<Note>();
+        var distinct = current == null
+            ? source.distinctBy(NoteRepository::identityOf)
+            : source.distinctBy(NoteRepository::identityOf, current);
+        distinct.conflate(executor).collect(observer);
+        return source;
+    }
+
+    /**
+     * What tells two versions of a note apart. Every save gets a version of its own (see
+     * {@link #upsertLocal(Note, boolean)} and {@link #mergeLocal}), so the same version means
+     * the same text, without comparing it.
+     */
+    private static List<Object> identityOf(Note note) {
+        return note == null ? null : List.of(note.title, note.version, note.node);
+    }
+
+    /** Save a note locally, and once that is committed, upload it. */
+    @AnyThread
+    public CompletableFuture<Void> upsertSynced(Note note) {
+        return upsertLocalAsync(note).thenRun(() -> upsertRemote(note));
+    }
+
+    /**
+     * Like {@link #upsertSynced(Note)}, for a note edited from {@code base}, e.g. what an editor
+     * showed. Edits others made since are kept (see {@link #upsertLocal(Note, String)}).
+     */
+    @AnyThread
+    public CompletableFuture<Void> upsertSynced(Note note, String base) {
+        return CompletableFuture.runAsync(() -> upsertLocal(note, base), dbExecutor)
+            .thenRun(() -> upsertRemote(note));
+    }
+
+    /**
+     * Bring every local note up to date with the server. Only the notes that changed since the
+     * last sync are fetched, and each page of them is applied in one database transaction, along
+     * with how far we got. If the server can't tell us what changed, we work out which notes
+     * differ with {@link #reconcileAll()}, and failing that, fetch every note in one batch.
+     */
+    public void syncAll() {
+        remote.getChanges(() -> dao.getCursor(SyncCursor.SERVER),
+                changes -> CompletableFuture.runAsync(
+                    () -> dao.upsertChanges(receiveAll(changes.notes), changes.cursor), dbExecutor))
+            .thenCompose(supported -> supported
+                ? CompletableFuture.completedFuture(true)
+                : reconcileAll())
+            .thenAccept(supported -> {
+                if (!supported) remote.getAll(dao::getAllTitles, this::upsertNewerAsync);
+            })
+            .exceptionally(e -> {
+                // The next sync carries on from the last page we got.
+                e.printStackTrace();
+                return null;
+            });
+    }
+
+    /**
+     * Find the notes that differ between our library and the server's by comparing hash trees,
+     * which takes a few round trips however many notes there are. Then fetch the ones the server
+     * has a newer copy of, and upload the ones we do.
+     *
+     * @return a future of whether the server has a hash tree to compare with.
+     */
+    @AnyThread
+    public CompletableFuture<Boolean> reconcileAll() {
+        var tree = new NoteReconciler.Tree() {
+            @Override
+            public List<Long> getHashes(List<Integer> ids) {
+                return dao.getTreeHashes(ids);
+            }
+
+            @Override
+            public List<MerkleNode.Entry> getEntries(List<Integer> buckets) {
+                return dao.getTreeEntries(buckets);
+            }
+        };
+
+        return remote.findDifferences(tree, dbExecutor).thenApply(differences -> {
+            if (differences == null) return false;
+
+            var theirs = new ArrayList<String>();
+            var ours = new ArrayList<String>();
+            for (var difference : differences) {
+                if (difference.isTheirsNewer()) theirs.add(difference.title);
+                else ours.add(difference.title);
+            }
+            if (!theirs.isEmpty()) remote.getAll(() -> theirs, this::upsertNewerAsync);
+            dbExecutor.execute(() -> {
+                for (var title : ours) {
+                    var note = dao.find(title);
+                    if (note != null) upsertRemote(note);
+                }
+            });
+            return true;
+        });
+    }
+
+    /** Save the notes from the server that are newer than our copies of them. */
+    @AnyThread
+    private void upsertNewerAsync(List<Note> notes) {
+        dbExecutor.execute(() -> dao.upsertNewer(receiveAll(notes)));
+    }
+
+    /**
+     * Let the clock follow the versions of notes from the server, like {@link
+     * #upsertLocal(Note, boolean)} does for a single one.
+     *
+     * @return the notes whose versions it followed; the others are too far ahead to keep.
+     */
+    private List<Note> receiveAll(List<Note> notes) {
+        var followed = new ArrayList<Note>(notes.size());
+        for (var note : notes) {
+            if (clock.receive(note.version)) followed.add(note);
+        }
+        return followed;
     }
 
     // Local Methods
     // =============
 
     public LiveData<Note> getLocal(String title) {
-        return dao.get(title);
+        // Long notes are read back from their chunks, which can't happen on the main thread.
+        var note = new MediatorLiveData<Note>();
+        var rows = new Emissions<Note>();
+        // Don't read a long note back again just because some other note was saved.
+        rows.distinctBy(NoteRepository::identityOf).collect(row ->
+            dbExecutor.execute(() -> note.postValue(dao.withContent(row))));
+        note.addSource(dao.get(title), rows::emit);
+        return note;
     }
 
-    public LiveData<List<Note>> getAllLocal() {
-        return dao.getAll();
+    /** A fresh source of note list pages. Each one can only be used once, hence the factory. */
+    public PagingSource<Integer, NotePreview> getPreviewsLocal() {
+        return dao.getPreviews();
     }
 
+    /** Search notes by title and content, see {@link NoteDao#search(String)}. */
+    public PagingSource<Integer, NotePreview> searchLocal(String query) {
+        return dao.search(query);
+    }
+
+    /**
+     * Save a note locally.
+     *
+     * @param incrementVersion whether this is a new save, which gets a new version from our clock,
+     *                         rather than someone else's note from the server, which keeps its own
+     */
+    @WorkerThread
     public void upsertLocal(Note note, boolean incrementVersion) {
-        // We don't want to increment when we sync from the server, just when we save.
-        if (incrementVersion) note.version = note.version + 1;
-        note.version = note.version + 1;
-        dao.upsert(note);
+        upsertLocal(note, incrementVersion, null);
     }
 
+    @WorkerThread
     public void upsertLocal(Note note) {
-        upsertLocal(note, true);
+        upsertLocal(note, true, null);
     }
 
+    /**
+     * Save a note we edited from {@code base}. Edits others made that were merged in since, e.g.
+     * while we were typing, are kept, so the note may end up with more than we typed.
+     */
+    @WorkerThread
+    public void upsertLocal(Note note, String base) {
+        upsertLocal(note, true, base);
+    }
+
+    @WorkerThread
+    private void upsertLocal(Note note, boolean incrementVersion, @Nullable String base) {
+        var crdt = loadCrdt(note.title);
+        if (incrementVersion) {
+            note.version = clock.now();
+            note.node = clock.getNode();
+
+            // Record the edit in the note's history, and tell others who are editing it too.
+            var ops = crdt.setText(note.content, base);
+            note.content = crdt.getText();
+            if (!ops.isEmpty()) {
+                storeCrdt(note.title, crdt, ops);
+                remote.putOps(note, ops);
+            }
+        } else {
+            // Whatever we save next should come after this. A version too far ahead for the
+            // clock to follow would win over every save we make after it, so the note isn't
+            // taken at all: each edit we make would be overwritten the next time we poll.
+            if (!clock.receive(note.version)) return;
+
+            // Someone else's note, which we didn't get as ops. Whoever typed it sent those, but
+            // if we typed their edits again in our history, we would end up with them twice once
+            // the ops do arrive. So the history starts over from their text instead.
+            if (!crdt.getText().equals(note.content)) startOver(note.title, crdt.getSite(), note.content);
+        }
+
+        cache.invalidate(note.title);
+        dao.upsert(note);
+    }
+
+    @WorkerThread
     public void deleteLocal(Note note) {
+        cache.invalidate(note.title);
+        crdts.delete(note.title);
         dao.delete(note);
     }
 
-    public boolean existsLocal(String title) {
-        return dao.exists(title);
+    @WorkerThread
+    public void deleteLocal(String title) {
+        cache.invalidate(title);
+        crdts.delete(title);
+        dao.delete(title);
     }
 
-    // Remote Methods
-    // ==============
+    /**
+     * Merge edits someone else made to a note into our copy. Unlike a whole note from the server,
+     * this keeps whatever we typed in the meantime.
+     *
+     * @param version the version of the note the edits were saved with
+     * @param node    the node id of the clock that made that version
+     */
+    @WorkerThread
+    public void mergeLocal(String title, long version, long node, List<TextCrdt.Op> ops) {
+        var followed = clock.receive(version);
+        var crdt = loadCrdt(title);
+        var changed = crdt.apply(ops);
+        // Even if nothing changed, some of them may be held back until what they build on arrives.
+        storeCrdt(title, crdt, ops);
+        if (!changed) return;
+
+        // Text they resent while catching us up can be deleted again by the same ops.
+        var text = crdt.getText();
+        var note = dao.find(title);
+        if (note != null && text.equals(note.content)) return;
+        if (note == null) note = new Note(title, "");
+        note.content = text;
+        // The sender uploads this version of the note too; we already have it, merged. If ours
+        // was newer, the merged text is new to everyone, so it gets a version of its own, and
+        // nobody but us can upload it: otherwise the server keeps the text from before the merge.
+        // The same goes for a version too far ahead for our clock to follow, which we don't keep.
+        var merged = !followed || !new Note(title, "", version, node).isNewerThan(note);
+        if (merged) {
+            note.version = clock.now();
+            note.node = clock.getNode();
+        } else {
+            note.version = version;
+            note.node = node;
+        }
+        cache.invalidate(title);
+        dao.upsert(note);
+        if (merged) upsertRemote(note);
+    }
 
-    public LiveData<Note> getRemote(String title) {
-        // TODO: Implement getRemote!
-        // TODO: Set up polling background thread (MutableLiveData?)
-        // TODO: Refer to TimerService from https://github.com/DylanLukes/CSE-110-WI23-Demo5-V2.
+    /**
+     * Answer someone else's state vector of a note, which they send when they (re)subscribe to
+     * it: send them the edits they missed, and ask for the ones we did.
+     * <p>
+     * If their history starts from another text than ours, neither can merge the other's edits.
+     * That happens when one of us got the note whole from the server (see
+     * {@link #upsertLocal(Note, boolean)}). Once we have the same text again, both start over
+     * from it, which gives it the same ids on both sides.
+     */
+    @WorkerThread
+    public void catchUpLocal(String title, TextCrdt.StateVector theirs) {
+        if (!dao.exists(title)) return;
+        var crdt = loadCrdt(title);
+
+        if (theirs.base != crdt.getBase()) {
+            var text = crdt.getText();
+            if (theirs.hash != TextCrdt.hashOf(text)) return;
+            // Starting over tells them, and they do the same.
+            if (crdt.getBase() != TextCrdt.baseOf(text)) startOver(title, crdt.getSite(), text);
+            else if (!theirs.reply) putSync(title, crdt, true);
+            return;
+        }
 
-        // Cancel any previous poller if it exists.
-        if (this.poller != null && !this.poller.isCancelled()) {
-            poller.cancel(true);
+        var missing = crdt.missingFrom(theirs);
+        if (!missing.isEmpty()) {
+            var note = dao.find(title);
+            remote.putOps(note, missing);
         }
+        if (theirs.reply) return;
+        var ours = crdt.getStateVector();
+        if (crdt.isBehind(theirs) || ours.deleted != theirs.deleted) {
+            ours.reply = true;
+            remote.putSync(title, ours);
+        }
+    }
 
-        // Set up a background thread that will poll the server every 3 seconds.
+    /**
+     * The edit history of a note: its last snapshot and the ops logged since. If there is none
+     * or it doesn't add up to the note's text anymore, e.g. because a sync wrote the note
+     * directly, it starts over from the text.
+     */
+    @WorkerThread
+    private TextCrdt loadCrdt(String title) {
+        var note = dao.find(title);
+        var text = note == null ? "" : note.content;
+
+        var stored = crdts.find(title);
+        if (stored == null) return startOver(title, TextCrdt.newSite(), text);
+
+        var logged = crdts.getOps(title);
+        var hash = logged.isEmpty() ? stored.hash : logged.get(logged.size() - 1).hash;
+        var ops = new ArrayList<List<TextCrdt.Op>>(logged.size());
+        for (var batch : logged) ops.add(TextCrdt.Op.listFromJSON(batch.ops));
+        var crdt = TextCrdt.restore(stored.state, ops, hash, text);
+        return crdt != null ? crdt : startOver(title, TextCrdt.siteOf(stored.state), text);
+    }
 
-        // You may (but don't have to) want to cache the LiveData's for each title, so that
-        // you don't create a new polling thread every time you call getRemote with the same title.
-        // You don't need to worry about killing background threads.
+    /**
+     * Save the ops just made to or merged into a note's history. Usually they are only
+     * appended, so a save writes about as much as was typed, and every
+     * {@link CrdtDao#MAX_LOGGED} batches they are folded into a new snapshot.
+     */
+    @WorkerThread
+    private void storeCrdt(String title, TextCrdt crdt, List<TextCrdt.Op> ops) {
+        var hash = TextCrdt.hashOf(crdt.getText());
+        if (crdts.countOps(title) < CrdtDao.MAX_LOGGED) {
+            crdts.append(new NoteCrdtOps(title, TextCrdt.Op.listToJSON(ops), hash));
+        } else {
+            crdts.upsert(new NoteCrdt(title, crdt.encode(), hash));
+        }
+    }
 
-        var ex = Executors.newSingleThreadScheduledExecutor();
-        NoteAPI api = new NoteAPI();
-        poller = ex.scheduleAtFixedRate(() -> {
-            noteData.postValue(api.getNote(title));
-        }, 0, 3000, TimeUnit.MILLISECONDS);
+    /** Start a note's history over from its text, and tell whoever else has it open. */
+    @WorkerThread
+    private TextCrdt startOver(String title, long site, String text) {
+        var crdt = TextCrdt.fromText(site, text);
+        crdts.upsert(new NoteCrdt(title, crdt.encode(), TextCrdt.hashOf(text)));
+        putSync(title, crdt, false);
+        return crdt;
+    }
 
+    private void putSync(String title, TextCrdt crdt, boolean reply) {
+        var vector = crdt.getStateVector();
+        vector.reply = reply;
+        remote.putSync(title, vector);
+    }
 
-        return noteData;
+    @WorkerThread
+    public boolean existsLocal(String title) {
+        return dao.exists(title);
+    }
+
+    // Async versions of the above, safe to call from the main thread.
 
+    @AnyThread
+    public CompletableFuture<Void> upsertLocalAsync(Note note, boolean incrementVersion) {
+        return CompletableFuture.runAsync(() -> upsertLocal(note, incrementVersion), dbExecutor);
+    }
 
+    @AnyThread
+    public CompletableFuture<Void> upsertLocalAsync(Note note) {
+        return upsertLocalAsync(note, true);
+    }
 
+    @AnyThread
+    public CompletableFuture<Void> deleteLocalAsync(Note note) {
+        return CompletableFuture.runAsync(() -> deleteLocal(note), dbExecutor);
     }
 
-    public void upsertRemote(Note note) {
-        // TODO: Implement upsertRemote!
+    @AnyThread
+    public CompletableFuture<Void> deleteLocalAsync(String title) {
+        return CompletableFuture.runAsync(() -> deleteLocal(title), dbExecutor);
+    }
+
+    @AnyThread
+    public CompletableFuture<Boolean> existsLocalAsync(String title) {
+        return CompletableFuture.supplyAsync(() -> existsLocal(title), dbExecutor);
+    }
+
+    /**
+     * Create a note unless one with its title already exists, as a single atomic insert.
+     *
+     * @return a future that completes with whether the note was created.
+     */
+    @AnyThread
+    public CompletableFuture<Boolean> insertLocalIfAbsentAsync(Note note) {
+        return CompletableFuture.supplyAsync(() -> dao.insertIfAbsent(note) != -1, dbExecutor);
+    }
 
-        var ex = Executors.newSingleThreadScheduledExecutor();
-        NoteAPI api = new NoteAPI();
-        poller = ex.scheduleAtFixedRate(() -> {
-            api.putNote(note);
-            noteData.postValue(note);
-        }, 0, 3000, TimeUnit.MILLISECONDS);
+    /** The earlier versions of a note that were kept, newest first. */
+    @AnyThread
+    public CompletableFuture<List<NoteVersion.Summary>> getHistoryAsync(String title) {
+        return CompletableFuture.supplyAsync(() -> dao.getHistory(title), dbExecutor);
+    }
+
+    /**
+     * Bring back an earlier version of a note. It is saved (and uploaded) as a new version, so the
+     * version it replaces is kept in the history too.
+     *
+     * @return a future of whether that version was still kept.
+     */
+    @AnyThread
+    public CompletableFuture<Boolean> restoreAsync(String title, long seq) {
+        return CompletableFuture.supplyAsync(() -> dao.getVersion(title, seq), dbExecutor)
+            .thenCompose(old -> old == null
+                ? CompletableFuture.completedFuture(false)
+                : upsertSynced(new Note(title, old.content)).thenApply(done -> true));
+    }
+
+    /** How well the in-memory note cache is doing. */
+    @AnyThread
+    public NoteCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
 
+    // Remote Methods
+    // ==============
+
+    public LiveData<Note> getRemote(String title) {
+        // Polls are shared per title and only run while someone is observing the result.
+        return remote.get(title);
+    }
+
+    public void upsertRemote(Note note) {
+        remote.put(note);
     }
 }
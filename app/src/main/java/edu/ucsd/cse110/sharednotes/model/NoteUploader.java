@@ -0,0 +1,233 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Uploads saved notes through a durable outbox.
+ * <p>
+ * A save is recorded in the {@link OutboxDao outbox} table first, so it survives the network being
+ * down or the app being killed. The outbox holds at most one pending version per title, so rapid
+ * saves of the same note coalesce into one upload, and a burst of saves is debounced into one
+ * flush.
+ * <p>
+ * Only one flush runs at a time. It sends due uploads in batches, oldest version first, and
+ * whatever the server won't take as a batch one by one. Each upload the server accepts is removed
+ * from the outbox and confirmed to the listener exactly once. Failed uploads stay queued and are
+ * retried with a growing delay, unless a newer save replaces them in the meantime.
+ */
+public class NoteUploader {
+    public static final long DEBOUNCE_MS = 500;
+    private static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+    private static final int BATCH_SIZE = 50;
+
+    public interface Listener {
+        /** Called on a background thread once the server has accepted a note. */
+        void onUploaded(Note note);
+    }
+
+    private final NoteAPI api;
+    private final OutboxDao outbox;
+    private final ScheduledExecutorService scheduler;
+    private final long debounceMs;
+    private final Listener listener;
+    private final LongSupplier clock = System::currentTimeMillis;
+
+    // Guarded by this.
+    private ScheduledFuture<?> flushTimer;
+    private boolean flushing;
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    /** When the outbox started failing to drain, or -1 if it isn't failing. */
+    private volatile long failingSince = -1;
+    private volatile long lastRecoveryMs = 0;
+
+    public NoteUploader(NoteAPI api, OutboxDao outbox, ScheduledExecutorService scheduler, Listener listener) {
+        this(api, outbox, scheduler, DEBOUNCE_MS, listener);
+    }
+
+    public NoteUploader(NoteAPI api, OutboxDao outbox, ScheduledExecutorService scheduler,
+                        long debounceMs, Listener listener) {
+        this.api = api;
+        this.outbox = outbox;
+        this.scheduler = scheduler;
+        this.debounceMs = debounceMs;
+        this.listener = listener;
+    }
+
+    /** Queue a note for upload, replacing any older version of it that hasn't gone out yet. */
+    @AnyThread
+    public void enqueue(Note note) {
+        saves.incrementAndGet();
+
+        // Snapshot the note now: callers keep editing their copy after saving it.
+        var upload = PendingUpload.of(note, clock.getAsLong());
+        scheduler.execute(() -> {
+            outbox.upsertNewer(upload);
+            scheduleFlush(debounceMs);
+        });
+    }
+
+    /** Try everything in the outbox right away, e.g. because the network seems to be back. */
+    @AnyThread
+    public void retryNow() {
+        if (failingSince < 0) return;
+
+        scheduler.execute(() -> {
+            outbox.makeAllDue(clock.getAsLong());
+            scheduleFlush(0);
+        });
+    }
+
+    /** Drain whatever was left in the outbox, e.g. by a previous run of the app. */
+    @AnyThread
+    public void start() {
+        scheduleFlush(0);
+    }
+
+    /** How many uploads are waiting in the outbox. */
+    public LiveData<Integer> getDepth() {
+        return outbox.getDepth();
+    }
+
+    /** How many notes were queued so far. */
+    public long getSaveCount() {
+        return saves.get();
+    }
+
+    /** How many note uploads were actually sent so far. */
+    public long getUploadCount() {
+        return uploads.get();
+    }
+
+    /** How long the outbox took to drain after uploads last started failing, in millis. */
+    public long getLastRecoveryMillis() {
+        return lastRecoveryMs;
+    }
+
+    private synchronized void scheduleFlush(long delay) {
+        if (scheduler.isShutdown()) return;
+        if (flushTimer != null) flushTimer.cancel(false);
+        flushTimer = scheduler.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @WorkerThread
+    private void flush() {
+        synchronized (this) {
+            // A flush is already running. It reschedules itself once it's done if anything
+            // (like the save that scheduled us) is still waiting.
+            if (flushing) {
+                flushTimer = null;
+                return;
+            }
+            flushing = true;
+            flushTimer = null;
+        }
+        sendDue();
+    }
+
+    /**
+     * Send the next batch of due uploads, and once the server has answered, the batch after
+     * that. The scheduler's threads aren't held up while uploads are in flight, so polls and
+     * reconnects sharing them go on meanwhile.
+     */
+    @WorkerThread
+    private void sendDue() {
+        List<PendingUpload> due;
+        try {
+            due = outbox.getDue(clock.getAsLong(), BATCH_SIZE);
+        } catch (RuntimeException e) {
+            finish();
+            throw e;
+        }
+        if (due.isEmpty()) {
+            finish();
+            return;
+        }
+
+        send(due).whenComplete((allAccepted, error) -> {
+            if (error == null && allAccepted) sendDue();
+            else finish();
+        });
+    }
+
+    @WorkerThread
+    private void finish() {
+        synchronized (this) {
+            flushing = false;
+        }
+
+        var next = outbox.getNextAttemptAt();
+        if (next == null) {
+            if (failingSince >= 0) {
+                lastRecoveryMs = clock.getAsLong() - failingSince;
+                failingSince = -1;
+            }
+        } else {
+            synchronized (this) {
+                if (flushTimer == null) scheduleFlush(Math.max(next - clock.getAsLong(), 0));
+            }
+        }
+    }
+
+    /**
+     * Send one batch of uploads.
+     *
+     * @return a future of whether every upload in it was accepted, completed on the scheduler.
+     */
+    @AnyThread
+    private CompletableFuture<Boolean> send(List<PendingUpload> batch) {
+        var notes = new ArrayList<Note>(batch.size());
+        for (var upload : batch) notes.add(upload.toNote());
+        uploads.addAndGet(notes.size());
+
+        // A single note can go out as a patch. A batch the server won't take as a whole goes out
+        // note by note from the API already, so whatever it didn't accept isn't sent again here:
+        // it backs off with the others.
+        CompletableFuture<List<Note>> sent = notes.size() == 1
+            ? api.putNoteAsync(notes.get(0)).thenApply(accepted -> accepted ? notes : List.of())
+            : api.putNotesAsync(notes);
+        return sent
+            .exceptionally(e -> List.of())
+            .thenApplyAsync(accepted -> record(batch, accepted), scheduler);
+    }
+
+    /**
+     * Remove the uploads the server accepted from the outbox, and back off the others.
+     *
+     * @return whether every upload in the batch was accepted.
+     */
+    @WorkerThread
+    private boolean record(List<PendingUpload> batch, List<Note> accepted) {
+        var acceptedTitles = new HashSet<String>();
+        for (var note : accepted) {
+            acceptedTitles.add(note.title);
+            outbox.remove(note.title, note.version);
+            listener.onUploaded(note);
+        }
+
+        var now = clock.getAsLong();
+        for (var upload : batch) {
+            if (acceptedTitles.contains(upload.title)) continue;
+
+            if (failingSince < 0) failingSince = now;
+            var delay = Math.min(debounceMs << Math.min(upload.attempts, 20), MAX_RETRY_DELAY_MS);
+            outbox.markFailed(upload.title, upload.version, now + delay);
+        }
+
+        return acceptedTitles.size() == batch.size();
+    }
+}
@@ -0,0 +1,109 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+
+/**
+ * An earlier version of a note, kept so it can be looked at or restored later.
+ * <p>
+ * Most versions are stored as the edit that turns the next newer version back into this one (a
+ * reverse delta), which for typical edits is a few characters rather than the whole note. Every
+ * {@link #KEYFRAME_INTERVAL} versions, one is stored whole instead, so getting any version back
+ * never takes more than that many edits, however long the history is.
+ */
+@Entity(tableName = "note_versions", primaryKeys = {"title", "seq"})
+public class NoteVersion {
+    /** At most this many deltas separate any version from a whole copy to start from. */
+    public static final int KEYFRAME_INTERVAL = 32;
+
+    /** Once a note has more versions than this, its history is compacted. */
+    public static final int MAX_VERSIONS = 200;
+
+    /** Versions younger than this are all kept... */
+    public static final long DETAIL_MS = 24 * 60 * 60 * 1000;
+
+    /** ...older ones only as the last version of each hour. */
+    public static final long BUCKET_MS = 60 * 60 * 1000;
+
+    @NonNull
+    public String title;
+
+    /** Counts up with each version of a note. */
+    public long seq;
+
+    public long version;
+
+    public long node;
+
+    /** For whole versions of short notes: the content. */
+    @Nullable
+    public String content;
+
+    /** For whole versions of long notes: the hashes of the {@link NoteChunk chunks} it is in. */
+    @Nullable
+    public String chunks;
+
+    /** For deltas: the edit that turns the next newer version into this one. */
+    public int patchOffset;
+
+    public int patchDelete;
+
+    @Nullable
+    public String patchInsert;
+
+    public NoteVersion(@NonNull String title, long seq, long version, long node,
+                       @Nullable String content, @Nullable String chunks,
+                       int patchOffset, int patchDelete, @Nullable String patchInsert) {
+        this.title = title;
+        this.seq = seq;
+        this.version = version;
+        this.node = node;
+        this.content = content;
+        this.chunks = chunks;
+        this.patchOffset = patchOffset;
+        this.patchDelete = patchDelete;
+        this.patchInsert = patchInsert;
+    }
+
+    /** {@code old}, stored as the edit that turns {@code newer} back into it. */
+    public static NoteVersion delta(Note old, long seq, String newer) {
+        var patch = TextPatch.between(newer, old.content);
+        return new NoteVersion(old.title, seq, old.version, old.node, null, null,
+            patch.offset, patch.delete, patch.insert);
+    }
+
+    /** {@code old}, stored whole: inline, or as a list of chunks if it has one. */
+    public static NoteVersion keyframe(Note old, long seq, @Nullable String chunks) {
+        return new NoteVersion(old.title, seq, old.version, old.node,
+            chunks == null ? old.content : null, chunks, 0, 0, null);
+    }
+
+    public boolean isKeyframe() {
+        return content != null || chunks != null;
+    }
+
+    /** Turn the content of the next newer version into this one's. Only for deltas. */
+    public String undo(String newer) {
+        return new TextPatch(patchOffset, patchDelete, patchInsert).apply(newer);
+    }
+
+    /** What a list of versions shows, without the content, which can be large. */
+    public static class Summary {
+        @NonNull
+        public final String title;
+
+        public final long seq;
+
+        public final long version;
+
+        public final long node;
+
+        public Summary(@NonNull String title, long seq, long version, long node) {
+            this.title = title;
+            this.seq = seq;
+            this.version = version;
+            this.node = node;
+        }
+    }
+}
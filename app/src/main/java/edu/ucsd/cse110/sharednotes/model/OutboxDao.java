@@ -0,0 +1,60 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Upsert;
+
+import java.util.List;
+
+/** Data access object for the {@link PendingUpload} outbox. */
+@Dao
+public abstract class OutboxDao {
+    /** Queue an upload. Replaces any older pending version of the same note. */
+    @Upsert
+    public abstract long upsert(PendingUpload upload);
+
+    @Query("SELECT * FROM outbox WHERE title = :title")
+    public abstract PendingUpload find(String title);
+
+    /**
+     * Like {@link #upsert(PendingUpload)}, unless a newer version of the note is queued already,
+     * e.g. by a later save whose write got here first.
+     */
+    @Transaction
+    public void upsertNewer(PendingUpload upload) {
+        var queued = find(upload.title);
+        if (queued == null || queued.version <= upload.version) upsert(upload);
+    }
+
+    /** Uploads that are due, oldest version first. */
+    @Query("SELECT * FROM outbox WHERE nextAttemptAt <= :now ORDER BY version LIMIT :limit")
+    public abstract List<PendingUpload> getDue(long now, int limit);
+
+    /** When the next upload is due, or null if the outbox is empty. */
+    @Query("SELECT MIN(nextAttemptAt) FROM outbox")
+    public abstract Long getNextAttemptAt();
+
+    /**
+     * Remove an upload once the server accepted it. Only removes that exact version, so a newer
+     * save that came in while we were uploading stays queued.
+     */
+    @Query("DELETE FROM outbox WHERE title = :title AND version = :version")
+    public abstract int remove(String title, long version);
+
+    /** Record a failed attempt at uploading a version, and when to try it next. */
+    @Query("UPDATE outbox SET attempts = attempts + 1, nextAttemptAt = :nextAttemptAt "
+        + "WHERE title = :title AND version = :version")
+    public abstract int markFailed(String title, long version, long nextAttemptAt);
+
+    /** Make every pending upload due right away, e.g. because the network just came back. */
+    @Query("UPDATE outbox SET nextAttemptAt = :now WHERE nextAttemptAt > :now")
+    public abstract int makeAllDue(long now);
+
+    @Query("SELECT COUNT(*) FROM outbox")
+    public abstract int count();
+
+    @Query("SELECT COUNT(*) FROM outbox")
+    public abstract LiveData<Integer> getDepth();
+}
@@ -0,0 +1,54 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A note that has been saved locally but not yet accepted by the server. There is at most one
+ * per title: saving again replaces it with the newer version.
+ */
+@Entity(tableName = "outbox")
+public class PendingUpload {
+    @PrimaryKey
+    @NonNull
+    public String title;
+
+    @NonNull
+    public String content;
+
+    public long version;
+
+    @ColumnInfo(defaultValue = "0")
+    public long node;
+
+    /** How many times uploading this version has failed so far. */
+    public int attempts;
+
+    /** When (in epoch millis) we should next try to upload it. */
+    public long nextAttemptAt;
+
+    /** When (in epoch millis) this version was saved. */
+    public long enqueuedAt;
+
+    public PendingUpload(@NonNull String title, @NonNull String content, long version, long node,
+                         int attempts, long nextAttemptAt, long enqueuedAt) {
+        this.title = title;
+        this.content = content;
+        this.version = version;
+        this.node = node;
+        this.attempts = attempts;
+        this.nextAttemptAt = nextAttemptAt;
+        this.enqueuedAt = enqueuedAt;
+    }
+
+    /** A fresh upload of the current state of a note, due right away. */
+    public static PendingUpload of(Note note, long now) {
+        return new PendingUpload(note.title, note.content, note.version, note.node, 0, now, now);
+    }
+
+    public Note toNote() {
+        return new Note(title, content, version, node);
+    }
+}
@@ -0,0 +1,111 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides how long to wait before polling a note again, and keeps count of how it went.
+ * <p>
+ * We start at a fast cadence. Every poll that finds nothing new doubles the wait (up to a cap), so
+ * notes nobody is editing cost fewer and fewer requests. As soon as something changes, or the user
+ * edits the note, we drop back to the fast cadence. Failed polls back off too, up to a longer cap,
+ * so a dead network doesn't keep us spinning.
+ * <p>
+ * Every wait is jittered so that many notes opened at once don't end up polling in lockstep.
+ */
+public class PollBackoff {
+    public static final long MIN_DELAY_MS = 3000;
+    public static final long MAX_IDLE_DELAY_MS = 60 * 1000;
+    public static final long MAX_ERROR_DELAY_MS = 2 * 60 * 1000;
+
+    /** A snapshot of how often a note has been polled. */
+    public static class Stats {
+        public final long polls;
+        public final long changes;
+        public final long errors;
+        public final long delayMs;
+        public final double pollsPerMinute;
+
+        Stats(long polls, long changes, long errors, long delayMs, double pollsPerMinute) {
+            this.polls = polls;
+            this.changes = changes;
+            this.errors = errors;
+            this.delayMs = delayMs;
+            this.pollsPerMinute = pollsPerMinute;
+        }
+    }
+
+    private final Random random;
+    private final LongSupplier clock;
+
+    private long delay = MIN_DELAY_MS;
+    private long polls = 0;
+    private long changes = 0;
+    private long errors = 0;
+    private long firstPollAt = -1;
+
+    public PollBackoff() {
+        this(new Random(), System::currentTimeMillis);
+    }
+
+    public PollBackoff(Random random, LongSupplier clock) {
+        this.random = random;
+        this.clock = clock;
+    }
+
+    /** The poll found a newer note. Returns how long to wait before the next one. */
+    @AnyThread
+    public synchronized long onChanged() {
+        count();
+        changes++;
+        delay = MIN_DELAY_MS;
+        return jittered(delay);
+    }
+
+    /** The poll found nothing new. Returns how long to wait before the next one. */
+    @AnyThread
+    public synchronized long onUnchanged() {
+        count();
+        delay = Math.min(delay * 2, MAX_IDLE_DELAY_MS);
+        return jittered(delay);
+    }
+
+    /** The poll failed. Returns how long to wait before the next one. */
+    @AnyThread
+    public synchronized long onError() {
+        count();
+        errors++;
+        delay = Math.min(delay * 2, MAX_ERROR_DELAY_MS);
+        return jittered(delay);
+    }
+
+    /** Go back to the fast cadence. Returns how long to wait before the next poll. */
+    @AnyThread
+    public synchronized long reset() {
+        delay = MIN_DELAY_MS;
+        return jittered(delay);
+    }
+
+    @AnyThread
+    public synchronized Stats getStats() {
+        double perMinute = 0;
+        if (firstPollAt >= 0) {
+            var elapsed = Math.max(clock.getAsLong() - firstPollAt, 1);
+            perMinute = polls * 60_000.0 / elapsed;
+        }
+        return new Stats(polls, changes, errors, delay, perMinute);
+    }
+
+    private void count() {
+        if (firstPollAt < 0) firstPollAt = clock.getAsLong();
+        polls++;
+    }
+
+    /** Somewhere between half and all of the delay, so that polls spread out over time. */
+    private long jittered(long delay) {
+        var half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+}
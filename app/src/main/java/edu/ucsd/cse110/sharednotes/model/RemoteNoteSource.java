@@ -0,0 +1,428 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Owns every remote poll in the app.
+ * <p>
+ * All polls run on one shared, bounded scheduler, and there is at most one poll per title no
+ * matter how many observers there are. A title is only polled while its LiveData has active
+ * observers, so the number of requests scales with what is on screen rather than with how many
+ * notes were ever opened.
+ * <p>
+ * When the server can push updates to us (see {@link NotePushClient}), observed titles are
+ * subscribed to instead of polled, and polling only resumes while the push stream is down. Even
+ * then, each title's poll slows down while the note sits unchanged (see {@link PollBackoff}).
+ * <p>
+ * The push stream also carries edits as {@link TextCrdt} ops, so people editing the same note at
+ * the same time see each other's changes merged rather than overwritten. Whenever a title is
+ * subscribed, again after a reconnect too, the ops listener gets to catch up on what was lost
+ * while it wasn't.
+ */
+public class RemoteNoteSource {
+    private static final int SYNC_THREADS = 2;
+
+    public interface OpsListener {
+        /** Called on a background thread with edits someone else made to a note. */
+        void onOps(String title, long version, long node, List<TextCrdt.Op> ops);
+
+        /** Called on a background thread with someone else's state vector of a note. */
+        default void onSync(String title, TextCrdt.StateVector theirs) {}
+
+        /**
+         * Called on a background thread when edits to a note start arriving, again or for the
+         * first time, e.g. to {@link #putSync send our state vector} for what we missed.
+         */
+        default void onSubscribed(String title) {}
+    }
+
+    private volatile static RemoteNoteSource instance = null;
+
+    private final NoteAPI api;
+    private final ScheduledExecutorService scheduler;
+    private final NotePushClient push;
+    private final NoteUploader uploader;
+    private final Map<String, RemoteNoteLiveData> notes = new ConcurrentHashMap<>();
+    private volatile OpsListener opsListener = (title, version, node, ops) -> {};
+
+    /** Whether the last poll, of whichever title, failed to reach the server. */
+    private final AtomicBoolean unreachable = new AtomicBoolean();
+
+    public RemoteNoteSource(NoteAPI api, OutboxDao outbox, ScheduledExecutorService scheduler) {
+        this.api = api;
+        this.scheduler = scheduler;
+        this.uploader = new NoteUploader(api, outbox, scheduler, this::onUploaded);
+        this.push = new NotePushClient(api, scheduler, new NotePushClient.Listener() {
+            @Override
+            public void onNote(Note note) {
+                var live = notes.get(note.title);
+                if (live != null) live.updateIfNewer(note);
+            }
+
+            @Override
+            public void onOps(String title, long version, long node, List<TextCrdt.Op> ops) {
+                opsListener.onOps(title, version, node, ops);
+            }
+
+            @Override
+            public void onSync(String title, TextCrdt.StateVector theirs) {
+                opsListener.onSync(title, theirs);
+            }
+
+            @Override
+            public void onSubscribed(String title) {
+                opsListener.onSubscribed(title);
+            }
+
+            @Override
+            public void onConnectionChanged(boolean connected) {
+                if (connected) uploader.retryNow();
+                for (var live : notes.values()) {
+                    // Catch up on anything we missed while switching over, then let the
+                    // stream (or the poller, if it dropped) take it from there.
+                    if (connected && live.active) live.poll(next -> {});
+                    live.refreshPolling();
+                }
+            }
+        });
+    }
+
+    public synchronized static RemoteNoteSource provide(NoteAPI api, OutboxDao outbox) {
+        if (instance == null) {
+            instance = new RemoteNoteSource(
+                api,
+                outbox,
+                Executors.newScheduledThreadPool(SYNC_THREADS)
+            );
+            // Pick up any saves that didn't make it to the server last time.
+            instance.uploader.start();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public synchronized static void inject(RemoteNoteSource testSource) {
+        if (instance != null) {
+            instance.scheduler.shutdownNow();
+        }
+        instance = testSource;
+    }
+
+    /**
+     * Get the remote copy of a note. Every caller asking for the same title shares the same
+     * LiveData, and therefore the same poll.
+     *
+     * @param title the title of the note
+     * @return a LiveData that is updated with the server's copy while it is being observed.
+     */
+    @AnyThread
+    public LiveData<Note> get(String title) {
+        return notes.computeIfAbsent(title, RemoteNoteLiveData::new);
+    }
+
+    /**
+     * Upload a note in the background. The save is recorded in the outbox first, so it isn't lost
+     * if the network is down, and rapid saves of the same note are coalesced into one upload (see
+     * {@link NoteUploader}). Once the server accepts a version, observers of the
+     * note's title are told about it right away, without waiting for the next poll.
+     */
+    @AnyThread
+    public void put(Note note) {
+        uploader.enqueue(note);
+    }
+
+    /**
+     * Send edits to a note to everyone else who has it open, if the push stream is up. The whole
+     * note still goes out through {@link #put(Note)} as well, for everyone who isn't.
+     *
+     * @param note the note as saved with the edits, for its title and version
+     *
+     * @return whether the edits were sent.
+     */
+    @AnyThread
+    public boolean putOps(Note note, List<TextCrdt.Op> ops) {
+        return push.sendOps(note.title, note.version, note.node, ops);
+    }
+
+    /**
+     * Send our state vector of a note to everyone else who has it open, if the push stream is up,
+     * so they send us the edits we missed.
+     *
+     * @return whether it was sent.
+     */
+    @AnyThread
+    public boolean putSync(String title, TextCrdt.StateVector vector) {
+        return push.sendSync(title, vector);
+    }
+
+    /** Where to deliver edits others made, e.g. to merge them into the local copy. */
+    @AnyThread
+    public void setOpsListener(OpsListener listener) {
+        opsListener = listener;
+    }
+
+    private void onUploaded(Note note) {
+        var live = notes.get(note.title);
+        if (live == null) return;
+        live.update(note);
+        // Someone is actively editing this note, so others' edits are likely too.
+        live.pollSoon();
+    }
+
+    /** The queue of saves waiting to be uploaded, e.g. to observe its depth. */
+    @AnyThread
+    public NoteUploader getUploader() {
+        return uploader;
+    }
+
+    /**
+     * How often a title has been polled, so we can check that idle notes really do cost less.
+     *
+     * @return the title's poll counters, or null if nobody ever asked for the title.
+     */
+    @AnyThread
+    public PollBackoff.Stats getPollStats(String title) {
+        var live = notes.get(title);
+        return live == null ? null : live.backoff.getStats();
+    }
+
+    /**
+     * Fetch many notes in one go, rather than one poll at a time. Anyone observing one of the
+     * fetched titles is updated too.
+     *
+     * @param titles    supplies the titles to fetch; called on the sync thread
+     * @param onFetched receives the fetched notes, on a background thread
+     */
+    @AnyThread
+    public void getAll(Supplier<List<String>> titles, Consumer<List<Note>> onFetched) {
+        scheduler.execute(() -> api.getNotesAsync(titles.get()).thenAccept(fetched -> {
+            for (var note : fetched) {
+                var live = notes.get(note.title);
+                if (live != null) live.updateIfNewer(note);
+            }
+            onFetched.accept(fetched);
+        }));
+    }
+
+    /**
+     * Fetch only the notes that changed on the server since we last synced, a page at a time.
+     * Anyone observing one of the fetched titles is updated too.
+     *
+     * @param cursor supplies where the last sync left off; called on the sync thread
+     * @param onPage receives each page, on a background thread, and returns a future of it being
+     *               stored, along with its cursor. The next page is only fetched after that.
+     * @return a future of whether the server has changes to sync from at all. It fails if a page
+     *         couldn't be fetched or stored.
+     */
+    @AnyThread
+    public CompletableFuture<Boolean> getChanges(LongSupplier cursor,
+                                                 Function<NoteAPI.Changes, CompletableFuture<Void>> onPage) {
+        var result = new CompletableFuture<Boolean>();
+        scheduler.execute(() -> getChangesFrom(cursor.getAsLong(), onPage, result));
+        return result;
+    }
+
+    private void getChangesFrom(long since, Function<NoteAPI.Changes, CompletableFuture<Void>> onPage,
+                                CompletableFuture<Boolean> result) {
+        api.getChangesAsync(since).whenComplete((changes, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (changes == null) {
+                result.complete(false);
+                return;
+            }
+
+            for (var note : changes.notes) {
+                var live = notes.get(note.title);
+                if (live != null) live.updateIfNewer(note);
+            }
+            onPage.apply(changes).whenComplete((stored, storeError) -> {
+                if (storeError != null) {
+                    result.completeExceptionally(storeError);
+                    return;
+                }
+                // A cursor that doesn't move on would ask for the same page forever.
+                if (changes.more && changes.cursor > since) getChangesFrom(changes.cursor, onPage, result);
+                else result.complete(true);
+            });
+        });
+    }
+
+    /**
+     * Find the notes that differ between our library and the server's, by comparing hash trees
+     * (see {@link NoteReconciler}).
+     *
+     * @param local         our hash tree
+     * @param localExecutor where to read our hash tree
+     * @return a future of the notes that differ, or of null if the server has no hash tree.
+     */
+    @AnyThread
+    public CompletableFuture<List<NoteReconciler.Difference>> findDifferences(NoteReconciler.Tree local,
+                                                                            Executor localExecutor) {
+        return new NoteReconciler(api, local, localExecutor).findDifferences();
+    }
+
+    /**
+     * A LiveData for a single title that is kept up to date only while it has active observers,
+     * by the push stream if it is up, or by polling if it is not.
+     */
+    private class RemoteNoteLiveData extends MutableLiveData<Note> {
+        private final String title;
+        private final PollBackoff backoff = new PollBackoff();
+        private volatile boolean active;
+
+        // Guarded by this. Each scheduled poll remembers its generation, so a poll that was
+        // already running when we rescheduled doesn't start a second chain of polls.
+        private ScheduledFuture<?> poller;
+        private CompletableFuture<Note> request;
+        private long generation = 0;
+
+        /** The newest copy we have seen, sent along with each poll so unchanged notes are free. */
+        private volatile Note lastSeen;
+        /** When we last heard from the server about this note. */
+        private volatile long lastHeardAt = 0;
+
+        RemoteNoteLiveData(String title) {
+            this.title = title;
+        }
+
+        @Override
+        @MainThread
+        protected void onActive() {
+            active = true;
+            push.subscribe(title);
+            refreshPolling();
+        }
+
+        @Override
+        @MainThread
+        protected void onInactive() {
+            active = false;
+            push.unsubscribe(title);
+            refreshPolling();
+        }
+
+        /** Poll if, and only if, someone is watching and the push stream can't tell us instead. */
+        @AnyThread
+        synchronized void refreshPolling() {
+            var shouldPoll = active && !push.isConnected();
+
+            if (shouldPoll && poller == null) {
+                // A note reopened right after we heard about it can wait for its usual poll.
+                var sinceHeard = System.currentTimeMillis() - lastHeardAt;
+                schedulePoll(Math.max(PollBackoff.MIN_DELAY_MS - sinceHeard, 0));
+            } else if (!shouldPoll && poller != null) {
+                cancelPoll();
+            }
+        }
+
+        /** If we are polling, go back to the fast cadence. */
+        @AnyThread
+        synchronized void pollSoon() {
+            var delay = backoff.reset();
+            if (poller == null) return;
+
+            cancelPoll();
+            schedulePoll(delay);
+        }
+
+        private void schedulePoll(long delay) {
+            var scheduled = ++generation;
+            poller = scheduler.schedule(() -> {
+                synchronized (this) {
+                    if (scheduled != generation) return;
+                    request = poll(next -> {
+                        synchronized (this) {
+                            if (scheduled == generation) schedulePoll(next);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /** Stop polling, including the request in flight, e.g. because nobody is watching. */
+        private void cancelPoll() {
+            generation++;
+            poller.cancel(false);
+            poller = null;
+            if (request != null) request.cancel(true);
+            request = null;
+        }
+
+        @AnyThread
+        private void update(Note note) {
+            lastSeen = note;
+            lastHeardAt = System.currentTimeMillis();
+            postValue(note);
+        }
+
+        @AnyThread
+        private synchronized void updateIfNewer(Note note) {
+            var known = lastSeen;
+            if (note.isNewerThan(known)) update(note);
+        }
+
+        /**
+         * Poll the server once, without blocking a thread while the request is out.
+         *
+         * @param then receives how long to wait before polling again, unless the poll is cancelled
+         * @return the request, which can be cancelled.
+         */
+        @AnyThread
+        private CompletableFuture<Note> poll(LongConsumer then) {
+            var known = lastSeen;
+            var request = api.getNoteIfChangedAsync(title, known);
+            request.whenComplete((note, error) -> {
+                // Cancelled because nobody is watching anymore: not the server's fault.
+                if (error instanceof CancellationException) return;
+                then.accept(onPolled(known, error == null ? note : null));
+            });
+            return request;
+        }
+
+        /**
+         * Tell our observers if the poll found a newer note.
+         *
+         * @return how long to wait before polling again.
+         */
+        private long onPolled(Note known, Note note) {
+            if (note == null) {
+                unreachable.set(true);
+                return backoff.onError();
+            }
+            lastHeardAt = System.currentTimeMillis();
+
+            // We reached the server again, so anything stuck in the outbox can go now too. Not
+            // after every poll: uploads the server keeps rejecting back off on their own.
+            if (unreachable.compareAndSet(true, false)) uploader.retryNow();
+            // Unchanged since the last poll: nothing to tell our observers.
+            if (note == known) return backoff.onUnchanged();
+
+            update(note);
+            return backoff.onChanged();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * How far along some list of changes we are, e.g. the server's changes we have already synced.
+ * Cursors only ever move forward.
+ */
+@Entity(tableName = "sync_cursors")
+public class SyncCursor {
+    /** The server's changes up to this cursor are in the local database. */
+    public static final String SERVER = "server";
+
+    /** The last {@link Note#seq} handed out, so a deleted note's number is never reused. */
+    public static final String LOCAL = "local";
+
+    @PrimaryKey
+    @NonNull
+    public String name;
+
+    public long value;
+
+    public SyncCursor(@NonNull String name, long value) {
+        this.name = name;
+        this.value = value;
+    }
+}
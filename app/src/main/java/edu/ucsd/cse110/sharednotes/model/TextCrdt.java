@@ -0,0 +1,775 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The text of a note as a replicated growable array (RGA), so that concurrent edits from several
+ * people merge the same way everywhere, without a server deciding who wins.
+ * <p>
+ * Every character gets a unique id when it is typed: the id of the replica (device) that typed
+ * it, and that replica's Lamport clock at the time. An insert remembers the character it was
+ * typed after (its origin). Concurrent inserts after the same origin are ordered by id, newest
+ * first, and deleted characters stay behind as invisible tombstones, so every replica that has
+ * seen the same ops ends up with the same text, whatever order they arrived in. A tombstone only
+ * keeps the ids of what was deleted, not the text.
+ * <p>
+ * Edits go out as compact {@link Op ops} (what was typed or deleted, and where), never as the
+ * whole text. Runs of characters typed together are stored as one item and only split when an
+ * edit lands inside them, so a long note costs little more than its text. Ops can get lost, e.g.
+ * while a replica is offline, so replicas also compare {@link StateVector state vectors} now and
+ * then, and send each other whatever the other is missing.
+ * <p>
+ * Not thread safe. Callers use one thread per note, e.g. the database thread.
+ */
+public class TextCrdt {
+    private static final Gson GSON = new Gson();
+
+    /** Stands for "the start of the text" as an insert's origin. Real replica ids are never 0. */
+    private static final long ROOT_SITE = 0;
+
+    /**
+     * At most this many remote ops are held back waiting for the ops they build on. Beyond that,
+     * the oldest are dropped: whatever they needed is likely lost, and comparing state vectors
+     * sends them again along with it.
+     */
+    public static final int MAX_PENDING = 1000;
+
+    /** Stands in for text we only know the length of, e.g. that of deleted characters. */
+    private static final char FILLER = '\0';
+
+    /** One edit, as sent to other replicas. Field names are short since ops go over the wire. */
+    public static class Op {
+        /** The replica that typed the (first) character, or that the deleted ones came from. */
+        @SerializedName("s")
+        public final long site;
+
+        /** The clock of the (first) typed or deleted character. */
+        @SerializedName("c")
+        public final long clock;
+
+        /** For inserts: the character the text was typed after. */
+        @SerializedName("os")
+        public final long originSite;
+
+        @SerializedName("oc")
+        public final long originClock;
+
+        /** For inserts: what was typed. Null for deletes. */
+        @SerializedName("t")
+        @Nullable
+        public final String text;
+
+        /** For deletes: how many characters, with consecutive clocks, were deleted. */
+        @SerializedName("n")
+        public final int length;
+
+        private Op(long site, long clock, long originSite, long originClock, @Nullable String text, int length) {
+            this.site = site;
+            this.clock = clock;
+            this.originSite = originSite;
+            this.originClock = originClock;
+            this.text = text;
+            this.length = length;
+        }
+
+        static Op insert(long site, long clock, long originSite, long originClock, String text) {
+            return new Op(site, clock, originSite, originClock, text, text.length());
+        }
+
+        static Op delete(long site, long clock, int length) {
+            return new Op(site, clock, 0, 0, null, length);
+        }
+
+        public boolean isInsert() {
+            return text != null;
+        }
+
+        public static String listToJSON(List<Op> ops) {
+            return GSON.toJson(ops);
+        }
+
+        public static List<Op> listFromJSON(String json) {
+            return List.of(GSON.fromJson(json, Op[].class));
+        }
+    }
+
+    /** A run of characters typed together by one replica, with consecutive clocks. */
+    private static final class Item {
+        final long site;
+        final long clock;
+        final long originSite;
+        final long originClock;
+
+        /** The characters, or null once they are deleted. */
+        @Nullable
+        String text;
+
+        int length;
+        Item next;
+
+        Item(long site, long clock, long originSite, long originClock, @Nullable String text, int length) {
+            this.site = site;
+            this.clock = clock;
+            this.originSite = originSite;
+            this.originClock = originClock;
+            this.text = text;
+            this.length = length;
+        }
+
+        boolean isDeleted() {
+            return text == null;
+        }
+
+        int visibleLength() {
+            return isDeleted() ? 0 : length;
+        }
+
+        long lastClock() {
+            return clock + length - 1;
+        }
+
+        /** Whether this item's first character comes before an insert with the given id. */
+        boolean isOlderThan(long otherClock, long otherSite) {
+            return clock < otherClock || (clock == otherClock && site < otherSite);
+        }
+    }
+
+    private final long site;
+    private long clock = 0;
+
+    /** The replica id the starting text was typed as (see {@link #fromText}), or 0 if none. */
+    private long base = ROOT_SITE;
+
+    /** A sentinel before the first item, so inserts at the start need no special casing. */
+    private final Item head = new Item(ROOT_SITE, 0, ROOT_SITE, 0, null, 0);
+
+    /** Every item by replica, then by the clock of its first character. */
+    private final Map<Long, TreeMap<Long, Item>> items = new HashMap<>();
+
+    /** Remote ops that arrived before the ops they build on. */
+    private final List<Op> pending = new ArrayList<>();
+
+    private int length = 0;
+
+    /** A new, empty text, edited locally as the given replica. */
+    public TextCrdt(long site) {
+        if (site == ROOT_SITE) throw new IllegalArgumentException("Replica id 0 is reserved");
+        this.site = site;
+    }
+
+    /**
+     * A text that starts out as {@code text}, edited locally as the given replica.
+     * <p>
+     * Replicas that start from the same text give it the same ids, so they can merge each other's
+     * edits even though none of them typed it. Replicas that start from different texts end up
+     * with both, one after the other, which is the best anyone can do without a shared history.
+     */
+    public static TextCrdt fromText(long site, String text) {
+        var crdt = new TextCrdt(site);
+        crdt.base = baseOf(text);
+        if (!text.isEmpty()) crdt.integrateInsert(Op.insert(crdt.base, 1, ROOT_SITE, 0, text));
+        return crdt;
+    }
+
+    /** The replica id a starting text is typed as (see {@link #fromText}), or 0 for no text. */
+    public static long baseOf(String text) {
+        if (text.isEmpty()) return ROOT_SITE;
+        var hash = hashOf(text);
+        return hash == ROOT_SITE ? 1 : hash;
+    }
+
+    /** A 64-bit FNV-1a hash of a text, to tell whether two texts are the same without sending them. */
+    public static long hashOf(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** A random replica id, for a device that doesn't have one yet. */
+    public static long newSite() {
+        long site;
+        do {
+            site = new SecureRandom().nextLong();
+        } while (site == ROOT_SITE);
+        return site;
+    }
+
+    public long getSite() {
+        return site;
+    }
+
+    /** The replica id of the text this history starts from. Only histories with the same one merge. */
+    public long getBase() {
+        return base;
+    }
+
+    /** The text as it stands now. */
+    @NonNull
+    public String getText() {
+        var text = new StringBuilder(length);
+        for (var item = head.next; item != null; item = item.next) {
+            if (!item.isDeleted()) text.append(item.text);
+        }
+        return text.toString();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** How many remote ops are waiting for ops they depend on. */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Local Edits
+    // ===========
+
+    /**
+     * Make a local edit.
+     *
+     * @return the ops to send to other replicas, in order.
+     */
+    public List<Op> edit(TextPatch patch) {
+        var ops = new ArrayList<Op>(2);
+        if (patch.delete > 0) deleteLocal(patch.offset, patch.delete, ops);
+        if (!patch.insert.isEmpty()) ops.add(insertLocal(patch.offset, patch.insert));
+        return ops;
+    }
+
+    /** Make whatever edit turns the text into {@code text}, e.g. after a whole-note save. */
+    public List<Op> setText(String text) {
+        var patch = TextPatch.between(getText(), text);
+        return patch.isEmpty() ? List.of() : edit(patch);
+    }
+
+    /**
+     * Make the edit that turned {@code base} into {@code text}, keeping whatever was merged in
+     * since {@code base} was the text, e.g. edits that arrived while someone was typing, before
+     * the editor showed them. Where both changed the same span, {@code text} wins.
+     *
+     * @param base the text {@code text} was edited from, or null to make the text {@code text}
+     */
+    public List<Op> setText(String text, @Nullable String base) {
+        var current = getText();
+        if (base == null || base.equals(current)) return setText(text);
+
+        var ours = TextPatch.between(base, text);
+        if (ours.isEmpty()) return List.of();
+        var theirs = TextPatch.between(base, current);
+        var shift = theirs.insert.length() - theirs.delete;
+
+        TextPatch patch;
+        if (ours.offset + ours.delete <= theirs.offset) {
+            patch = ours;
+        } else if (ours.offset >= theirs.offset + theirs.delete) {
+            patch = new TextPatch(ours.offset + shift, ours.delete, ours.insert);
+        } else {
+            // Both replaced some of the same text: ours replaces all of what either touched.
+            var start = Math.min(ours.offset, theirs.offset);
+            var end = Math.max(ours.offset + ours.delete, theirs.offset + theirs.delete);
+            var oursEnd = end + ours.insert.length() - ours.delete;
+            patch = new TextPatch(start, end - start + shift, text.substring(start, oursEnd));
+        }
+        return edit(patch);
+    }
+
+    private Op insertLocal(int offset, String text) {
+        long originSite = ROOT_SITE;
+        long originClock = 0;
+        if (offset > 0) {
+            // The id of the visible character just before the offset.
+            var before = splitAtVisible(offset);
+            originSite = before.site;
+            originClock = before.lastClock();
+        }
+
+        var op = Op.insert(site, clock + 1, originSite, originClock, text);
+        integrateInsert(op);
+        return op;
+    }
+
+    private void deleteLocal(int offset, int count, List<Op> ops) {
+        var item = offset == 0 ? head : splitAtVisible(offset);
+        int remaining = count;
+        item = item.next;
+        while (remaining > 0 && item != null) {
+            if (!item.isDeleted()) {
+                if (item.length > remaining) split(item, remaining);
+                item.text = null;
+                length -= item.length;
+                remaining -= item.length;
+                ops.add(Op.delete(item.site, item.clock, item.length));
+            }
+            item = item.next;
+        }
+    }
+
+    /**
+     * Find the visible character at {@code offset - 1}, and split its item so that character is
+     * the item's last.
+     */
+    private Item splitAtVisible(int offset) {
+        int seen = 0;
+        for (var item = head.next; item != null; item = item.next) {
+            var visible = item.visibleLength();
+            if (seen + visible >= offset) {
+                var end = offset - seen;
+                if (end < item.length) split(item, end);
+                return item;
+            }
+            seen += visible;
+        }
+        throw new IndexOutOfBoundsException("Offset " + offset + " is past the end (" + length + ")");
+    }
+
+    // Remote Edits
+    // ============
+
+    /**
+     * Apply ops from another replica. Ops we have already seen are ignored, and ops that arrive
+     * before the ones they build on are held back until those arrive, up to {@link #MAX_PENDING}.
+     *
+     * @return whether the text changed.
+     */
+    public boolean apply(List<Op> ops) {
+        var changed = false;
+        var applied = false;
+        for (var op : ops) {
+            var outcome = tryApply(op);
+            if (outcome == Outcome.MISSING) {
+                pending.add(op);
+                continue;
+            }
+            applied = true;
+            if (outcome == Outcome.CHANGED) changed = true;
+        }
+        if (pending.size() > MAX_PENDING) pending.subList(0, pending.size() - MAX_PENDING).clear();
+
+        // Retry held-back ops until none of them can make progress anymore.
+        var progress = applied && !pending.isEmpty();
+        while (progress) {
+            progress = false;
+            for (Iterator<Op> it = pending.iterator(); it.hasNext(); ) {
+                var outcome = tryApply(it.next());
+                if (outcome == Outcome.MISSING) continue;
+                it.remove();
+                progress = true;
+                if (outcome == Outcome.CHANGED) changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** What applying an op did. */
+    private enum Outcome {
+        /** It inserted characters or deleted visible ones. */
+        CHANGED,
+        /** We already had it. */
+        SEEN,
+        /** It depends on characters we don't know about yet. */
+        MISSING
+    }
+
+    private Outcome tryApply(Op op) {
+        if (op.isInsert()) {
+            if (find(op.site, op.clock) != null) return Outcome.SEEN;
+            if (op.originSite != ROOT_SITE && find(op.originSite, op.originClock) == null) {
+                return Outcome.MISSING;
+            }
+            integrateInsert(op);
+            return Outcome.CHANGED;
+        }
+
+        // Deletes need every character they delete.
+        for (long c = op.clock; c < op.clock + op.length; ) {
+            var item = find(op.site, c);
+            if (item == null) return Outcome.MISSING;
+            c = item.lastClock() + 1;
+        }
+        var outcome = Outcome.SEEN;
+        for (long c = op.clock; c < op.clock + op.length; ) {
+            var item = find(op.site, c);
+            if (item.clock < c) item = split(item, (int) (c - item.clock));
+            var end = op.clock + op.length;
+            if (item.lastClock() >= end) split(item, (int) (end - item.clock));
+            if (!item.isDeleted()) {
+                item.text = null;
+                length -= item.length;
+                outcome = Outcome.CHANGED;
+            }
+            c = item.lastClock() + 1;
+        }
+        return outcome;
+    }
+
+    private void integrateInsert(Op op) {
+        var left = head;
+        if (op.originSite != ROOT_SITE) {
+            left = find(op.originSite, op.originClock);
+            if (left.lastClock() > op.originClock) split(left, (int) (op.originClock - left.clock + 1));
+        }
+
+        // Concurrent inserts at the same spot: newer ones (and everything typed after them) first.
+        var right = left.next;
+        while (right != null && !right.isOlderThan(op.clock, op.site)) {
+            left = right;
+            right = right.next;
+        }
+
+        var item = new Item(op.site, op.clock, op.originSite, op.originClock, op.text, op.length);
+        link(left, item);
+        index(item);
+        length += item.length;
+        clock = Math.max(clock, item.lastClock());
+    }
+
+    // Catching Up
+    // ===========
+
+    /**
+     * Which characters a replica has seen, so another one can send it whatever it is missing (see
+     * {@link #missingFrom}), e.g. ops that were lost while it was offline. A few numbers per run of
+     * typing, never the text.
+     */
+    public static class StateVector {
+        /** The replica id of the text the history starts from, see {@link #getBase()}. */
+        @SerializedName("base")
+        public long base;
+
+        /** The {@link #hashOf hash} of the text as it stands. */
+        @SerializedName("hash")
+        public long hash;
+
+        /** The clocks seen of each replica, as the first and last clock of each run of them. */
+        @SerializedName("seen")
+        public Map<Long, long[]> seen;
+
+        /** The ids of all deleted characters, hashed together. */
+        @SerializedName("deleted")
+        public long deleted;
+
+        /** Whether this answers another replica's state vector, so it needs no answer itself. */
+        @SerializedName("reply")
+        public boolean reply;
+
+        /** The last clock of the run of seen clocks {@code clock} is in, or {@code clock - 1}. */
+        private long seenUntil(long site, long clock) {
+            var runs = seen == null ? null : seen.get(site);
+            if (runs == null) return clock - 1;
+            for (int i = 0; i < runs.length; i += 2) {
+                if (runs[i] <= clock && clock <= runs[i + 1]) return runs[i + 1];
+            }
+            return clock - 1;
+        }
+
+        /** The first seen clock after {@code clock}, or {@link Long#MAX_VALUE}. */
+        private long nextSeen(long site, long clock) {
+            var runs = seen == null ? null : seen.get(site);
+            if (runs == null) return Long.MAX_VALUE;
+            for (int i = 0; i < runs.length; i += 2) {
+                if (runs[i] > clock) return runs[i];
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public StateVector getStateVector() {
+        var vector = new StateVector();
+        vector.base = base;
+        vector.hash = hashOf(getText());
+        vector.seen = new HashMap<>();
+        for (var bySite : items.entrySet()) {
+            var runs = new ArrayList<Long>();
+            for (var item : bySite.getValue().values()) {
+                var last = runs.size() - 1;
+                if (last > 0 && runs.get(last) == item.clock - 1) {
+                    runs.set(last, item.lastClock());
+                } else {
+                    runs.add(item.clock);
+                    runs.add(item.lastClock());
+                }
+            }
+            var array = new long[runs.size()];
+            for (int i = 0; i < array.length; i++) array[i] = runs.get(i);
+            vector.seen.put(bySite.getKey(), array);
+        }
+        vector.deleted = deletedHash();
+        return vector;
+    }
+
+    /**
+     * The ops that bring a replica with the given state vector up to date with this one: the
+     * characters it hasn't seen, in order, and the deletes, unless it has the same ones already.
+     * Nothing if its history starts from a different text.
+     */
+    public List<Op> missingFrom(StateVector theirs) {
+        var ops = new ArrayList<Op>();
+        if (theirs.base != base) return ops;
+
+        for (var item = head.next; item != null; item = item.next) {
+            for (long c = item.clock; c <= item.lastClock(); ) {
+                var seenUntil = theirs.seenUntil(item.site, c);
+                if (seenUntil >= c) {
+                    c = seenUntil + 1;
+                    continue;
+                }
+                var last = Math.min(item.lastClock(), theirs.nextSeen(item.site, c) - 1);
+                ops.add(insertOf(item, c, last));
+                c = last + 1;
+            }
+        }
+        if (theirs.deleted != deletedHash()) {
+            for (var item = head.next; item != null; item = item.next) {
+                if (item.isDeleted()) ops.add(Op.delete(item.site, item.clock, item.length));
+            }
+        }
+        return ops;
+    }
+
+    /** Whether a replica with the given state vector has seen characters this one hasn't. */
+    public boolean isBehind(StateVector theirs) {
+        if (theirs.base != base || theirs.seen == null) return false;
+        for (var bySite : theirs.seen.entrySet()) {
+            var runs = bySite.getValue();
+            for (int i = 0; i < runs.length; i += 2) {
+                for (long c = runs[i]; c <= runs[i + 1]; ) {
+                    var item = find(bySite.getKey(), c);
+                    if (item == null) return true;
+                    c = item.lastClock() + 1;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** An insert of some of an item's characters, as it was typed. Deleted ones are filler. */
+    private static Op insertOf(Item item, long first, long last) {
+        var offset = (int) (first - item.clock);
+        var count = (int) (last - first + 1);
+        var text = item.isDeleted() ? filler(count) : item.text.substring(offset, offset + count);
+        return first == item.clock
+            ? Op.insert(item.site, first, item.originSite, item.originClock, text)
+            : Op.insert(item.site, first, item.site, first - 1, text);
+    }
+
+    private static String filler(int count) {
+        var chars = new char[count];
+        Arrays.fill(chars, FILLER);
+        return new String(chars);
+    }
+
+    /** The ids of all deleted characters, hashed together in no particular order. */
+    private long deletedHash() {
+        long hash = 0;
+        for (var item = head.next; item != null; item = item.next) {
+            if (!item.isDeleted()) continue;
+            for (long c = item.clock; c <= item.lastClock(); c++) {
+                // SplitMix64 of the id, so that XOR-ing them doesn't cancel out runs.
+                long z = item.site * 0x9e3779b97f4a7c15L + c;
+                z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+                z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+                hash ^= z ^ (z >>> 31);
+            }
+        }
+        return hash;
+    }
+
+    // Items
+    // =====
+
+    /** The item holding the character with this id, or null if we haven't seen it. */
+    private Item find(long site, long clock) {
+        var bySite = items.get(site);
+        if (bySite == null) return null;
+        var entry = bySite.floorEntry(clock);
+        if (entry == null || entry.getValue().lastClock() < clock) return null;
+        return entry.getValue();
+    }
+
+    /**
+     * Split an item so that it keeps its first {@code at} characters.
+     *
+     * @return the new item holding the rest.
+     */
+    private Item split(Item item, int at) {
+        var rest = new Item(item.site, item.clock + at, item.site, item.clock + at - 1,
+            item.isDeleted() ? null : item.text.substring(at), item.length - at);
+        if (!item.isDeleted()) item.text = item.text.substring(0, at);
+        item.length = at;
+        link(item, rest);
+        index(rest);
+        return rest;
+    }
+
+    private void link(Item left, Item item) {
+        item.next = left.next;
+        left.next = item;
+    }
+
+    private void index(Item item) {
+        items.computeIfAbsent(item.site, s -> new TreeMap<>()).put(item.clock, item);
+    }
+
+    /** Join items that were split, but are alike again, e.g. because both halves were deleted. */
+    private void compact() {
+        for (var item = head.next; item != null; item = item.next) {
+            StringBuilder joined = null;
+            Item next;
+            while ((next = item.next) != null && next.site == item.site
+                    && next.clock == item.lastClock() + 1
+                    && next.originSite == item.site && next.originClock == item.lastClock()
+                    && next.isDeleted() == item.isDeleted()) {
+                if (!item.isDeleted()) {
+                    if (joined == null) joined = new StringBuilder(item.text);
+                    joined.append(next.text);
+                }
+                item.length += next.length;
+                item.next = next.next;
+                items.get(item.site).remove(next.clock);
+            }
+            if (joined != null) item.text = joined.toString();
+        }
+    }
+
+    // Persistence
+    // ===========
+
+    /**
+     * Everything needed to restore this text later, e.g. from the database, except the text
+     * itself, which is stored anyway (see {@link #restore}). So it grows with how much the text
+     * was edited, not with how long it is.
+     */
+    private static class State {
+        @SerializedName("site")
+        long site;
+
+        @SerializedName("clock")
+        long clock;
+
+        @SerializedName("base")
+        long base;
+
+        @SerializedName("items")
+        List<StoredItem> items;
+
+        @SerializedName("pending")
+        List<Op> pending;
+    }
+
+    private static class StoredItem {
+        @SerializedName("s")
+        long site;
+
+        @SerializedName("c")
+        long clock;
+
+        @SerializedName("os")
+        long originSite;
+
+        @SerializedName("oc")
+        long originClock;
+
+        @SerializedName("d")
+        boolean deleted;
+
+        @SerializedName("n")
+        int length;
+    }
+
+    /** This history, without the text, see {@link #restore}. */
+    public String encode() {
+        compact();
+        var state = new State();
+        state.site = site;
+        state.clock = clock;
+        state.base = base;
+        state.items = new ArrayList<>();
+        for (var item = head.next; item != null; item = item.next) {
+            var stored = new StoredItem();
+            stored.site = item.site;
+            stored.clock = item.clock;
+            stored.originSite = item.originSite;
+            stored.originClock = item.originClock;
+            stored.deleted = item.isDeleted();
+            stored.length = item.length;
+            state.items.add(stored);
+        }
+        state.pending = pending;
+        return GSON.toJson(state);
+    }
+
+    /**
+     * Restore a text from its {@link #encode() encoded} history, the ops applied to it since (our
+     * own included), and the text it came to.
+     *
+     * @param hash the {@link #hashOf hash} of the text the history and ops came to
+     * @return null if {@code text} isn't that text, e.g. because it was changed without them.
+     */
+    @Nullable
+    public static TextCrdt restore(String state, List<List<Op>> ops, long hash, String text) {
+        if (hashOf(text) != hash) return null;
+
+        var crdt = decode(state);
+        for (var batch : ops) crdt.apply(batch);
+        if (crdt.length != text.length()) return null;
+
+        var offset = 0;
+        for (var item = crdt.head.next; item != null; item = item.next) {
+            if (item.isDeleted()) continue;
+            item.text = text.substring(offset, offset + item.length);
+            offset += item.length;
+        }
+        return crdt;
+    }
+
+    /** The replica an {@link #encode() encoded} history is edited as. */
+    public static long siteOf(String state) {
+        return GSON.fromJson(state, State.class).site;
+    }
+
+    /** Everything but the text, which is left as filler. */
+    private static TextCrdt decode(String json) {
+        var state = GSON.fromJson(json, State.class);
+        var crdt = new TextCrdt(state.site);
+        crdt.clock = state.clock;
+        crdt.base = state.base;
+
+        var last = crdt.head;
+        for (var stored : state.items) {
+            var text = stored.deleted ? null : filler(stored.length);
+            var item = new Item(stored.site, stored.clock, stored.originSite, stored.originClock,
+                text, stored.length);
+            crdt.link(last, item);
+            crdt.index(item);
+            crdt.length += item.visibleLength();
+            last = item;
+        }
+        if (state.pending != null) crdt.pending.addAll(state.pending);
+        return crdt;
+    }
+
+    /** The same text and history, edited as another replica from now on. */
+    public TextCrdt fork(long site) {
+        var state = GSON.fromJson(encode(), State.class);
+        state.site = site;
+        var text = getText();
+        return restore(GSON.toJson(state), List.of(), hashOf(text), text);
+    }
+}
@@ -0,0 +1,81 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A single-span text edit: replace {@code delete} characters at {@code offset} with
+ * {@code insert}.
+ * <p>
+ * Typing, pasting, or deleting a selection always touches one contiguous region of a note, so
+ * keeping everything before and after that region and only describing the middle is enough to
+ * make most edits tiny, without needing a full diff algorithm.
+ */
+public class TextPatch {
+    @SerializedName("offset")
+    public final int offset;
+
+    @SerializedName("delete")
+    public final int delete;
+
+    @SerializedName("insert")
+    @NonNull
+    public final String insert;
+
+    public TextPatch(int offset, int delete, @NonNull String insert) {
+        this.offset = offset;
+        this.delete = delete;
+        this.insert = insert;
+    }
+
+    /**
+     * The smallest single-span patch that turns {@code base} into {@code updated}. The base can be
+     * any text, e.g. what an EditText is showing, without copying it into a String first.
+     */
+    public static TextPatch between(CharSequence base, String updated) {
+        int prefix = 0;
+        int maxPrefix = Math.min(base.length(), updated.length());
+        while (prefix < maxPrefix && base.charAt(prefix) == updated.charAt(prefix)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && base.charAt(base.length() - 1 - suffix)
+                == updated.charAt(updated.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        // Never split a surrogate pair down the middle.
+        if (prefix > 0 && Character.isHighSurrogate(base.charAt(prefix - 1))) prefix--;
+        if (suffix > 0 && Character.isLowSurrogate(base.charAt(base.length() - suffix))) suffix--;
+
+        return new TextPatch(
+            prefix,
+            base.length() - prefix - suffix,
+            updated.substring(prefix, updated.length() - suffix)
+        );
+    }
+
+    /** Whether applying this patch changes nothing. */
+    public boolean isEmpty() {
+        return delete == 0 && insert.isEmpty();
+    }
+
+    /**
+     * Where a position in the base text (e.g. the cursor) ends up once the patch is applied.
+     * Positions before the patch stay put, those after it move along with the text, and those in
+     * the replaced span end up after what replaced it.
+     */
+    public int shift(int position) {
+        if (position <= offset) return position;
+        if (position >= offset + delete) return position - delete + insert.length();
+        return offset + insert.length();
+    }
+
+    public String apply(String base) {
+        return base.substring(0, offset) + insert + base.substring(offset + delete);
+    }
+}
@@ -0,0 +1,34 @@
+package edu.ucsd.cse110.sharednotes.view;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import edu.ucsd.cse110.sharednotes.model.NotePreview;
+
+/**
+ * Tells the list which rows actually changed between two loads of the notes.
+ * <p>
+ * A row is the same note if it has the same title (the primary key), and its contents are the
+ * same if the version is. Every save and every newer copy from the server bumps the version, so
+ * there is no need to compare the text itself.
+ */
+public class NotePreviewDiff extends DiffUtil.ItemCallback<NotePreview> {
+    @Override
+    public boolean areItemsTheSame(@NonNull NotePreview oldNote, @NonNull NotePreview newNote) {
+        return oldNote.title.equals(newNote.title);
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull NotePreview oldNote, @NonNull NotePreview newNote) {
+        return oldNote.version == newNote.version;
+    }
+
+    /**
+     * A changed note keeps its title, so the row only needs its preview updated rather than a full
+     * rebind (which would also play the change animation).
+     */
+    @Override
+    public Object getChangePayload(@NonNull NotePreview oldNote, @NonNull NotePreview newNote) {
+        return newNote;
+    }
+}
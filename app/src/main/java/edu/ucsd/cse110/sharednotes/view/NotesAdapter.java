@@ -7,25 +7,33 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.util.Consumer;
+import androidx.paging.PagingDataAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.function.BiConsumer;
 
 import edu.ucsd.cse110.sharednotes.R;
-import edu.ucsd.cse110.sharednotes.model.Note;
-
-public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.ViewHolder> {
-    private List<Note> notes = Collections.emptyList();
-    private Consumer<Note> onNoteClicked;
-    private Consumer<Note> onNoteDeleteClicked;
+import edu.ucsd.cse110.sharednotes.model.NotePreview;
+
+/**
+ * Shows the notes a page at a time. Pages are loaded as the list scrolls, and each new set of
+ * pages is diffed against the old one in the background (see {@link NotePreviewDiff}), so only
+ * rows that changed get rebound.
+ */
+public class NotesAdapter extends PagingDataAdapter<NotePreview, NotesAdapter.ViewHolder> {
+    private Consumer<NotePreview> onNoteClicked;
+    private Consumer<NotePreview> onNoteDeleteClicked;
+
+    public NotesAdapter() {
+        super(new NotePreviewDiff());
+    }
 
-    public void setOnNoteClickListener(Consumer<Note> onNoteClicked) {
+    public void setOnNoteClickListener(Consumer<NotePreview> onNoteClicked) {
         this.onNoteClicked = onNoteClicked;
     }
 
-    public void setOnNoteDeleteClickListener(Consumer<Note> onNoteDeleteClicked) {
+    public void setOnNoteDeleteClickListener(Consumer<NotePreview> onNoteDeleteClicked) {
         this.onNoteDeleteClicked = onNoteDeleteClicked;
     }
 
@@ -38,6 +46,7 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.ViewHolder>
         public final TextView nameView;
         public final TextView previewView;
         public final View deleteButton;
+        private NotePreview note;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -47,19 +56,23 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.ViewHolder>
             this.nameView = itemView.findViewById(R.id.note_item_title);
             this.previewView = itemView.findViewById(R.id.note_item_preview);
             this.deleteButton = itemView.findViewById(R.id.note_item_delete);
-        }
 
-        public void bind(Note note) {
-            nameView.setText(note.title);
-            previewView.setText(note.content);
+            // ...and set the listeners once, rather than on every bind.
             itemView.setOnClickListener(v -> onNoteClicked.accept(note));
             deleteButton.setOnClickListener(v -> onNoteDeleteClicked.accept(note));
         }
-    }
 
-    public void setNotes(List<Note> notes) {
-        this.notes = notes;
-        notifyDataSetChanged();
+        public void bind(NotePreview note) {
+            this.note = note;
+            nameView.setText(note.title);
+            previewView.setText(note.preview);
+        }
+
+        /** Update the row for a newer version of the same note. */
+        public void bindPreview(NotePreview note) {
+            this.note = note;
+            previewView.setText(note.preview);
+        }
     }
 
     @Override
@@ -72,20 +85,18 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.ViewHolder>
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        var note = notes.get(position);
+        // Placeholders are off, so every position we are asked to bind has been loaded.
+        var note = getItem(position);
         holder.bind(note);
     }
 
     @Override
-    public int getItemCount() {
-        return notes.size();
-    }
-
-    @Override
-    public long getItemId(int position) {
-        // We don't actually have a unique int/long ID on the Note object, so instead
-        // we generate a unique ID based on the title. It is possible that two notes
-        // could have different titles but the same hash code, but it is beyond unlikely.
-        return notes.get(position).title.hashCode();
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Payloads come from NotePreviewDiff. Only the newest one matters.
+        holder.bindPreview((NotePreview) payloads.get(payloads.size() - 1));
     }
 }
@@ -5,51 +5,79 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
-
-import java.util.List;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
 import edu.ucsd.cse110.sharednotes.model.Note;
+import edu.ucsd.cse110.sharednotes.model.NoteAPI;
 import edu.ucsd.cse110.sharednotes.model.NoteDatabase;
+import edu.ucsd.cse110.sharednotes.model.NotePreview;
 import edu.ucsd.cse110.sharednotes.model.NoteRepository;
 
 public class ListViewModel extends AndroidViewModel {
-    private LiveData<List<Note>> notes;
+    private static final PagingConfig PAGING_CONFIG =
+        new PagingConfig(50, 50, false);
+
+    private LiveData<PagingData<NotePreview>> notes;
+    private final MutableLiveData<String> query = new MutableLiveData<>("");
     private final NoteRepository repo;
 
     public ListViewModel(@NonNull Application application) {
         super(application);
         var context = application.getApplicationContext();
         var db = NoteDatabase.provide(context);
-        var dao = db.getDao();
-        this.repo = new NoteRepository(dao);
+        var api = NoteAPI.provide(context);
+        this.repo = new NoteRepository(db, api);
     }
 
     /**
-     * Load all notes from the database.
-     * @return a LiveData object that will be updated when any notes change.
+     * Load all notes from the database, or only those matching the search query if there is one.
+     * <p>
+     * Notes are loaded as previews, a page at a time as the list scrolls, so only what is on (or
+     * near) the screen is ever in memory. Pages are cached here so they survive rotation.
+     *
+     * @return a LiveData object that will be updated when any notes or the query change.
      */
-    public LiveData<List<Note>> getNotes() {
+    public LiveData<PagingData<NotePreview>> getNotes() {
         if (notes == null) {
-            notes = repo.getAllLocal();
+            var pages = Transformations.switchMap(query, q -> PagingLiveData.getLiveData(
+                new Pager<>(PAGING_CONFIG, () -> q.isBlank()
+                    ? repo.getPreviewsLocal()
+                    : repo.searchLocal(q))));
+            notes = PagingLiveData.cachedIn(pages, ViewModelKt.getViewModelScope(this));
         }
         return notes;
     }
 
+    /** Narrow the notes down to those matching a search query. Blank shows all notes again. */
+    public void setQuery(String query) {
+        if (query.equals(this.query.getValue())) return;
+        this.query.setValue(query);
+    }
+
     /**
      * Open a note in the database. If the note does not exist, create it.
      * @param title the title of the note
      * @return a LiveData object that will be updated when this note changes.
      */
     public LiveData<Note> getOrCreateNote(String title) {
-        if (!repo.existsLocal(title)) {
-            var note = new Note(title, "");
-            repo.upsertLocal(note, false);
-        }
-
+        // The insert happens in the background, so the LiveData may report no note (null) before
+        // it reports the new one.
+        repo.insertLocalIfAbsentAsync(new Note(title, ""));
         return repo.getLocal(title);
     }
 
-    public void delete(Note note) {
-        repo.deleteLocal(note);
+    public void delete(NotePreview note) {
+        repo.deleteLocalAsync(note.title);
+    }
+
+    /** Pull the newest version of every note from the server. */
+    public void syncAll() {
+        repo.syncAll();
     }
 }
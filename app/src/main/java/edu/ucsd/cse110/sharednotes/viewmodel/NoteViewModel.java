@@ -7,6 +7,7 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
 import edu.ucsd.cse110.sharednotes.model.Note;
+import edu.ucsd.cse110.sharednotes.model.NoteAPI;
 import edu.ucsd.cse110.sharednotes.model.NoteDatabase;
 import edu.ucsd.cse110.sharednotes.model.NoteRepository;
 
@@ -18,24 +19,26 @@ public class NoteViewModel extends AndroidViewModel {
         super(application);
         var context = application.getApplicationContext();
         var db = NoteDatabase.provide(context);
-        var dao = db.getDao();
-        this.repo = new NoteRepository(dao);
+        var api = NoteAPI.provide(context);
+        this.repo = new NoteRepository(db, api);
     }
 
     public LiveData<Note> getNote(String title) {
-        // TODO: use getSynced here instead?
-        // The returned live data should update whenever there is a change in
-        // the database, or when the server returns a newer version of the note.
-        // Polling interval: 3s.
+        // The returned live data updates whenever the note changes in the database, or when
+        // the server has a newer version of it, pushed to us or found by polling while the push
+        // stream is down (see RemoteNoteSource).
         if (note == null) {
             note = repo.getSynced(title);
         }
         return note;
     }
 
-    public void save(Note note) {
-        // TODO: try to upload the note to the server.
-        repo.upsertLocal(note);
-        repo.upsertRemote(note);
+    /**
+     * Save a note edited from {@code base}, what was shown before. Edits others made that weren't
+     * shown yet are kept.
+     */
+    public void save(Note note, String base) {
+        // Commit locally first (off the main thread), then upload.
+        repo.upsertSynced(note, base);
     }
 }
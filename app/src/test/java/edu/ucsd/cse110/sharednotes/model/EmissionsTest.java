@@ -0,0 +1,129 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EmissionsTest {
+    /** Runs tasks only when told to, like frame callbacks. */
+    private static class Frames implements Executor {
+        final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            queued.add(task);
+        }
+
+        void next() {
+            var tasks = new ArrayList<>(queued);
+            queued.clear();
+            tasks.forEach(Runnable::run);
+        }
+    }
+
+    @Test
+    public void testDistinctOnlyPassesOnChanges() {
+        var source = new Emissions<String>();
+        var seen = new ArrayList<String>();
+        source.distinctBy(String::length).collect(seen::add);
+
+        for (var value : List.of("a", "b", "cc", "dd", "e", "f")) source.emit(value);
+
+        assertEquals(List.of("a", "cc", "e"), seen);
+    }
+
+    @Test
+    public void testConflateDeliversTheLatestOncePerTurn() {
+        var frames = new Frames();
+        var source = new Emissions<Integer>();
+        var seen = new ArrayList<Integer>();
+        source.conflate(frames).collect(seen::add);
+
+        for (int i = 1; i <= 1000; i++) source.emit(i);
+        // However far behind the consumer is, only one delivery waits for it.
+        assertEquals(1, frames.queued.size());
+
+        frames.next();
+        source.emit(1001);
+        frames.next();
+        frames.next();
+
+        assertEquals(List.of(1000, 1001), seen);
+    }
+
+    @Test
+    public void testSyncedNoteEmitsOncePerChange() {
+        var frames = new Frames();
+        var seen = new ArrayList<Note>();
+        var cached = new Note("groceries", "eggs", 1, 7);
+        var updates = NoteRepository.distinctNotes(cached, frames, seen::add);
+
+        // The database answers with what we had cached, then again each time some other note
+        // is saved, or the same note is written back with its sync bookkeeping.
+        for (int i = 0; i < 5; i++) updates.emit(new Note("groceries", "eggs", 1, 7));
+        frames.next();
+        assertEquals(0, seen.size());
+
+        // A newer copy from the server is saved locally, then comes back from the database twice.
+        updates.emit(new Note("groceries", "eggs, milk", 2, 9));
+        updates.emit(new Note("groceries", "eggs, milk", 2, 9));
+        frames.next();
+        updates.emit(new Note("groceries", "eggs, milk", 2, 9));
+        frames.next();
+        assertEquals(1, seen.size());
+        assertEquals("eggs, milk", seen.get(0).content);
+
+        // Three quick saves within one frame.
+        updates.emit(new Note("groceries", "eggs, milk, b", 3, 7));
+        updates.emit(new Note("groceries", "eggs, milk, br", 4, 7));
+        updates.emit(new Note("groceries", "eggs, milk, bread", 5, 7));
+        frames.next();
+        assertEquals(2, seen.size());
+        assertEquals("eggs, milk, bread", seen.get(1).content);
+
+        // Deleted, and then still deleted.
+        updates.emit(null);
+        updates.emit(null);
+        frames.next();
+        assertEquals(3, seen.size());
+        assertNull(seen.get(2));
+    }
+
+    @Test
+    public void testSlowConsumerSkipsToTheNewest() throws InterruptedException {
+        var frames = new ConcurrentLinkedQueue<Runnable>();
+        var source = new Emissions<Integer>();
+        var deliveries = new AtomicInteger();
+        var last = new AtomicInteger();
+        source.distinctBy(value -> value).conflate(frames::add).collect(value -> {
+            deliveries.incrementAndGet();
+            last.set(value);
+        });
+
+        var producer = new Thread(() -> {
+            for (int i = 1; i <= 100_000; i++) source.emit(i);
+        });
+        producer.start();
+
+        // A consumer that takes its time with every frame.
+        var mostQueued = 0;
+        while (producer.isAlive() || !frames.isEmpty()) {
+            mostQueued = Math.max(mostQueued, frames.size());
+            var task = frames.poll();
+            if (task != null) task.run();
+            Thread.sleep(1);
+        }
+        producer.join();
+
+        assertEquals(100_000, last.get());
+        assertTrue(mostQueued <= 1);
+        assertTrue(deliveries.get() < 100_000);
+    }
+}
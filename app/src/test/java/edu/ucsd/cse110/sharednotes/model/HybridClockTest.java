@@ -0,0 +1,143 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+public class HybridClockTest {
+    private static final int TRIALS = 200;
+    private static final int NODES = 5;
+    private static final int STEPS = 500;
+    private static final long MAX_SKEW_MS = 10 * 60 * 1000;
+
+    /** A device's wall clock: off from real time by a fixed skew, and sometimes stepped back. */
+    private static class SkewedClock {
+        final long skew;
+        long adjustment = 0;
+
+        SkewedClock(long skew) {
+            this.skew = skew;
+        }
+    }
+
+    /** A version one device sent (e.g. uploaded) and another will receive. */
+    private static class Message {
+        final int from;
+        final long version;
+        final long node;
+
+        Message(int from, long version, long node) {
+            this.from = from;
+            this.version = version;
+            this.node = node;
+        }
+    }
+
+    @Test
+    public void testVersionsRespectCausalityUnderClockSkew() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            var random = new Random(trial);
+            var realTime = new long[]{1_700_000_000_000L};
+
+            var wallClocks = new ArrayList<SkewedClock>();
+            var clocks = new ArrayList<HybridClock>();
+            var lastVersions = new long[NODES];
+            for (int i = 0; i < NODES; i++) {
+                var wall = new SkewedClock((long) (random.nextDouble() * 2 * MAX_SKEW_MS) - MAX_SKEW_MS);
+                wallClocks.add(wall);
+                clocks.add(new HybridClock(i + 1, () -> realTime[0] + wall.skew + wall.adjustment));
+            }
+
+            var inFlight = new ArrayList<Message>();
+            var seen = new HashSet<String>();
+            for (int step = 0; step < STEPS; step++) {
+                realTime[0] += random.nextInt(50);
+                var i = random.nextInt(NODES);
+                var clock = clocks.get(i);
+
+                if (random.nextInt(20) == 0) {
+                    // NTP steps the clock back a little; versions must not follow it.
+                    wallClocks.get(i).adjustment -= random.nextInt(5_000);
+                }
+
+                if (!inFlight.isEmpty() && random.nextBoolean()) {
+                    var message = inFlight.remove(random.nextInt(inFlight.size()));
+                    clock.receive(message.version);
+                    // Anything saved after receiving a version is newer than it.
+                    var next = clock.now();
+                    assertTrue(next > message.version);
+                    assertTrue(next > lastVersions[i]);
+                    lastVersions[i] = next;
+                } else {
+                    var version = clock.now();
+                    // Each device's versions only go up...
+                    assertTrue(version > lastVersions[i]);
+                    lastVersions[i] = version;
+                    inFlight.add(new Message(i, version, clock.getNode()));
+                    // ...and no two saves anywhere get the same version and node.
+                    assertTrue(seen.add(version + "@" + clock.getNode()));
+
+                    // Versions stay close to real time: never further ahead than the fastest clock.
+                    var ahead = HybridClock.millisOf(version) - realTime[0];
+                    assertTrue(ahead <= MAX_SKEW_MS);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEveryDeviceOrdersNotesTheSameWay() {
+        var random = new Random(42);
+        var notes = new ArrayList<Note>();
+        for (int i = 0; i < 1000; i++) {
+            // Few distinct versions, so plenty of ties for the node id to break.
+            notes.add(new Note("Groceries", "", random.nextInt(10), random.nextInt(5)));
+        }
+
+        for (var a : notes) {
+            for (var b : notes) {
+                var sameVersion = a.version == b.version && a.node == b.node;
+                // Exactly one of two different versions is the newer, no matter who compares them.
+                assertEquals(!sameVersion, a.isNewerThan(b) ^ b.isNewerThan(a));
+            }
+        }
+    }
+
+    @Test
+    public void testSaveOnASlowClockStillWins() {
+        long[] now = {1_700_000_000_000L};
+        var fast = new HybridClock(1, () -> now[0] + MAX_SKEW_MS);
+        var slow = new HybridClock(2, () -> now[0]);
+
+        var theirs = new Note("Groceries", "eggs", fast.now(), fast.getNode());
+        slow.receive(theirs.version);
+        now[0] += 1000;
+        var ours = new Note("Groceries", "eggs, milk", slow.now(), slow.getNode());
+
+        // Even though its wall clock says it was made ten minutes earlier.
+        assertTrue(HybridClock.millisOf(fast.now()) > now[0]);
+        assertTrue(ours.isNewerThan(theirs));
+    }
+
+    @Test
+    public void testVersionsFarAheadAreNotFollowed() {
+        long[] now = {1_700_000_000_000L};
+        var clock = new HybridClock(1, () -> now[0]);
+        var before = clock.now();
+
+        assertFalse(clock.receive(Long.MAX_VALUE));
+        assertFalse(clock.receive((now[0] + HybridClock.MAX_DRIFT_MS + 1) << 16));
+        var after = clock.now();
+        assertTrue(after > before);
+        assertEquals(now[0], HybridClock.millisOf(after));
+
+        // A clock that is merely fast is still followed.
+        var fast = (now[0] + HybridClock.MAX_DRIFT_MS) << 16;
+        assertTrue(clock.receive(fast));
+        assertTrue(clock.now() > fast);
+    }
+}
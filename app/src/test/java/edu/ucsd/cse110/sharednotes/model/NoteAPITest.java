@@ -0,0 +1,573 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class NoteAPITest {
+    private static final int POLLS = 100;
+
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private MockWebServer server;
+    private NoteAPI api;
+
+    /** Counts what the server actually had to send, so we can compare polling strategies. */
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private final AtomicLong bodyBytes = new AtomicLong();
+
+    private final Note serverNote = new Note("Meeting Log", "x".repeat(4_000), 7);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var etag = "\"v" + serverNote.version + "\"";
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    notModifiedResponses.incrementAndGet();
+                    return new MockResponse().setResponseCode(304);
+                }
+
+                var body = serverNote.toJSON();
+                fullResponses.incrementAndGet();
+                bodyBytes.addAndGet(body.length());
+                return new MockResponse().setHeader("ETag", etag).setBody(body);
+            }
+        });
+        server.start();
+        api = new NoteAPI(server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testUnconditionalPollingDownloadsEveryTime() {
+        for (int i = 0; i < POLLS; i++) {
+            assertNotNull(api.getNote(serverNote.title));
+        }
+
+        assertEquals(POLLS, fullResponses.get());
+        assertEquals(POLLS * (long) serverNote.toJSON().length(), bodyBytes.get());
+    }
+
+    @Test
+    public void testConditionalPollingOnlyDownloadsOnce() {
+        var known = api.getNoteIfChanged(serverNote.title, null);
+        assertNotNull(known);
+        assertEquals(serverNote.version, known.version);
+
+        for (int i = 1; i < POLLS; i++) {
+            // Unchanged notes come back as the very same instance: nothing new was parsed.
+            assertSame(known, api.getNoteIfChanged(serverNote.title, known));
+        }
+
+        assertEquals(1, fullResponses.get());
+        assertEquals(POLLS - 1, notModifiedResponses.get());
+        assertEquals(serverNote.toJSON().length(), bodyBytes.get());
+    }
+
+    @Test
+    public void testConditionalPollingPicksUpChanges() throws InterruptedException {
+        var known = api.getNoteIfChanged(serverNote.title, null);
+        assertSame(known, api.getNoteIfChanged(serverNote.title, known));
+
+        serverNote.content = "edited";
+        serverNote.version = 8;
+
+        var updated = api.getNoteIfChanged(serverNote.title, known);
+        assertNotSame(known, updated);
+        assertEquals("edited", updated.content);
+        assertEquals(8, updated.version);
+
+        server.takeRequest();
+        var conditional = server.takeRequest();
+        assertEquals("\"v7\"", conditional.getHeader("If-None-Match"));
+        assertEquals("7", conditional.getRequestUrl().queryParameter("since"));
+    }
+
+    @Test
+    public void testSameVersionWithoutValidatorsIsUnchanged() {
+        // A server that ignores validators still must not produce a "new" note.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(serverNote.toJSON());
+            }
+        });
+
+        var known = api.getNoteIfChanged(serverNote.title, null);
+        assertSame(known, api.getNoteIfChanged(serverNote.title, known));
+    }
+
+    @Test
+    public void testNullBodyIsNotANote() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("null");
+            }
+        });
+
+        var known = new Note(serverNote.title, "known", 3);
+        assertNull(api.getNoteIfChangedAsync(serverNote.title, known).join());
+        assertNull(api.getNoteIfChangedAsync(serverNote.title, null).join());
+    }
+
+    @Test
+    public void testBatchFetchUsesOneRoundTrip() throws InterruptedException {
+        var notes = List.of(new Note("a", "1", 1), new Note("b", "2", 2));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(Note.listToJSON(notes));
+            }
+        });
+
+        var fetched = api.getNotes(List.of("a", "b"));
+
+        assertEquals(2, fetched.size());
+        assertEquals(1, server.getRequestCount());
+        assertEquals("/notes/batch", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void testBatchFallsBackToSingleRequests() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var path = request.getPath();
+                assert path != null;
+                if (path.equals("/notes/batch")) return new MockResponse().setResponseCode(404);
+                if (path.equals("/notes/missing")) return new MockResponse().setResponseCode(404);
+
+                var title = path.substring("/notes/".length());
+                return new MockResponse().setBody(new Note(title, "", 1).toJSON());
+            }
+        });
+
+        var fetched = api.getNotes(List.of("a", "b", "c", "missing"));
+        assertEquals(3, fetched.size());
+
+        // Once we know there is no bulk route, we stop asking for it.
+        int before = server.getRequestCount();
+        var uploaded = api.putNotes(List.of(new Note("a", "x", 2), new Note("b", "y", 2)));
+        assertEquals(2, uploaded.size());
+        assertEquals(before + 2, server.getRequestCount());
+    }
+
+    @Test
+    public void testBatchFallsBackWhenTheRouteIsTakenByATitle() {
+        // A server without bulk routes that takes "batch" for a note's title, and rejects the
+        // list of notes as an invalid note.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("/notes/batch".equals(request.getPath())) {
+                    return new MockResponse().setResponseCode(422);
+                }
+                return new MockResponse().setBody("{}");
+            }
+        });
+
+        var notes = List.of(new Note("a", "x", 2), new Note("b", "y", 2));
+        assertEquals(2, api.putNotes(notes).size());
+        assertEquals(3, server.getRequestCount());
+
+        // And from then on, it goes straight to the notes one by one.
+        assertEquals(2, api.putNotes(notes).size());
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void testThrottledBatchIsNotSplitUp() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(429);
+            }
+        });
+
+        // Sending the notes one by one would only add to the load the server is shedding.
+        var notes = List.of(new Note("a", "x", 2), new Note("b", "y", 2));
+        assertTrue(api.putNotes(notes).isEmpty());
+        assertTrue(api.getNotes(List.of("a", "b")).isEmpty());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /** A stand-in server that accepts gzipped bodies and PATCHes, and counts upload bytes. */
+    private final AtomicLong uploadBytes = new AtomicLong();
+
+    private Dispatcher patchingServer() {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getMethod().equals("GET")) {
+                    return new MockResponse()
+                        .setHeader("Accept-Encoding", "gzip")
+                        .setBody(serverNote.toJSON());
+                }
+
+                uploadBytes.addAndGet(request.getBodySize());
+                JsonObject json;
+                try {
+                    var body = request.getBody().readByteArray();
+                    if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                        body = new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes();
+                    }
+                    json = JsonParser.parseString(new String(body, StandardCharsets.UTF_8))
+                        .getAsJsonObject();
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+
+                if (request.getMethod().equals("PATCH")) {
+                    if (json.get("base_version").getAsLong() != serverNote.version) {
+                        return new MockResponse().setResponseCode(409);
+                    }
+                    var patch = new TextPatch(
+                        json.get("offset").getAsInt(),
+                        json.get("delete").getAsInt(),
+                        json.get("insert").getAsString()
+                    );
+                    serverNote.content = patch.apply(serverNote.content);
+                } else {
+                    serverNote.content = json.get("content").getAsString();
+                }
+                serverNote.version = json.get("version").getAsLong();
+                return new MockResponse().setBody(serverNote.toJSON());
+            }
+        };
+    }
+
+    @Test
+    public void testEditTraceUploadsOnlyPatches() {
+        server.setDispatcher(patchingServer());
+        var lines = new StringBuilder();
+        for (int i = 0; i < 400; i++) lines.append("Agenda item ").append(i).append(": discussed.\n");
+        serverNote.content = lines.toString();
+
+        var note = api.getNote(serverNote.title);
+        assertNotNull(note);
+
+        // A meeting log: mostly appending lines, occasionally fixing a typo further up.
+        long fullBytes = 0;
+        var saves = 60;
+        for (int i = 0; i < saves; i++) {
+            if (i % 5 == 4) {
+                var at = note.content.length() / 3 + i;
+                note.content = note.content.substring(0, at) + "!" + note.content.substring(at + 1);
+            } else {
+                note.content += "Action item " + i + ": follow up with the team.\n";
+            }
+            note.version++;
+
+            fullBytes += ("{\"version\":" + note.version + ",\"content\":"
+                + new Gson().toJson(note.content) + "}").length();
+            assertTrue(api.putNote(note));
+        }
+
+        System.out.printf("bytes on wire per save: %d with patches vs %d sending whole notes%n",
+            uploadBytes.get() / saves, fullBytes / saves);
+
+        assertEquals(note.content, serverNote.content);
+        assertEquals(note.version, serverNote.version);
+        assertTrue(uploadBytes.get() * 20 < fullBytes);
+    }
+
+    @Test
+    public void testPatchFallsBackToFullUploadOnVersionMismatch() {
+        server.setDispatcher(patchingServer());
+        serverNote.content = "y".repeat(5_000);
+
+        var note = api.getNote(serverNote.title);
+        assertNotNull(note);
+
+        // Someone else saves in between, so our base is stale.
+        serverNote.content = "z".repeat(5_000);
+        serverNote.version = 20;
+
+        note.content = note.content + "mine";
+        note.version = 21;
+        assertTrue(api.putNote(note));
+
+        assertEquals(note.content, serverNote.content);
+        assertEquals(21, serverNote.version);
+    }
+
+    @Test
+    public void testGzipsOnlyOnceTheServerSaysItCan() throws InterruptedException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var response = new MockResponse().setBody(serverNote.toJSON());
+                // Says so on the first response only.
+                if (request.getSequenceNumber() == 0) response.setHeader("Accept-Encoding", "gzip");
+                return response;
+            }
+        });
+        var note = new Note(serverNote.title, "z".repeat(5_000), 8);
+
+        assertTrue(api.putNote(note));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+
+        note.content = "y".repeat(5_000);
+        note.version = 9;
+        assertTrue(api.putNote(note));
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testGzippedBodyIsResentPlainIfRejected() throws InterruptedException {
+        // A server that advertises gzip, but can't actually parse it.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                    return new MockResponse().setResponseCode(422);
+                }
+                return new MockResponse()
+                    .setHeader("Accept-Encoding", "gzip")
+                    .setBody(serverNote.toJSON());
+            }
+        });
+        api.getNote(serverNote.title);
+        server.takeRequest();
+
+        var note = new Note(serverNote.title, "z".repeat(5_000), 8);
+        assertTrue(api.putNote(note));
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        var resent = server.takeRequest();
+        assertNull(resent.getHeader("Content-Encoding"));
+        assertTrue(resent.getBody().readUtf8().contains(note.content));
+
+        // And from then on, bodies go plain.
+        note.version = 9;
+        assertTrue(api.putNote(note));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        assertEquals(4, server.getRequestCount());
+    }
+
+    /** A stand-in server with a changes feed: each note carries the server's change counter. */
+    private Dispatcher changesServer(List<Note> library, List<Long> changedAt, AtomicLong sentBytes) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var url = request.getRequestUrl();
+                assert url != null;
+                String body;
+                if (url.encodedPath().equals("/notes/changes")) {
+                    var since = Long.parseLong(url.queryParameter("since"));
+                    var limit = Integer.parseInt(url.queryParameter("limit"));
+                    // Oldest change first, so a page's cursor covers everything before it.
+                    var changed = new ArrayList<Integer>();
+                    for (int i = 0; i < library.size(); i++) {
+                        if (changedAt.get(i) > since) changed.add(i);
+                    }
+                    changed.sort((a, b) -> Long.compare(changedAt.get(a), changedAt.get(b)));
+
+                    var page = new ArrayList<Note>();
+                    long cursor = since;
+                    for (var i : changed.subList(0, Math.min(limit, changed.size()))) {
+                        page.add(library.get(i));
+                        cursor = changedAt.get(i);
+                    }
+                    var more = changed.size() > limit;
+                    body = new Gson().toJson(new NoteAPI.Changes(page, cursor, more));
+                } else {
+                    body = Note.listToJSON(library);
+                }
+                sentBytes.addAndGet(body.length());
+                return new MockResponse().setBody(body);
+            }
+        };
+    }
+
+    @Test
+    public void testChangesFeedOnlySendsWhatChanged() {
+        var library = new ArrayList<Note>();
+        var changedAt = new ArrayList<Long>();
+        for (int i = 0; i < 2_000; i++) {
+            library.add(new Note("Note " + i, "some content ".repeat(20) + i, 1));
+            changedAt.add((long) i + 1);
+        }
+        var sentBytes = new AtomicLong();
+        server.setDispatcher(changesServer(library, changedAt, sentBytes));
+
+        // The first sync has to catch up on everything, a page at a time.
+        long cursor = 0;
+        int fetched = 0;
+        NoteAPI.Changes changes;
+        do {
+            changes = api.getChanges(cursor);
+            assertNotNull(changes);
+            fetched += changes.notes.size();
+            cursor = changes.cursor;
+        } while (changes.more);
+        assertEquals(library.size(), fetched);
+
+        // Then someone edits a handful of notes.
+        for (int i = 0; i < 5; i++) {
+            var index = i * 300;
+            library.set(index, new Note("Note " + index, "edited", 2));
+            changedAt.set(index, 2_000L + i + 1);
+        }
+
+        sentBytes.set(0);
+        changes = api.getChanges(cursor);
+        var incrementalBytes = sentBytes.get();
+        assertEquals(5, changes.notes.size());
+        assertFalse(changes.more);
+        for (var note : changes.notes) assertEquals("edited", note.content);
+        // Nothing new since then: nothing to send.
+        assertTrue(api.getChanges(changes.cursor).notes.isEmpty());
+
+        sentBytes.set(0);
+        var titles = new ArrayList<String>();
+        for (var note : library) titles.add(note.title);
+        assertEquals(library.size(), api.getNotes(titles).size());
+        var fullBytes = sentBytes.get();
+
+        System.out.printf("2000 notes, 5 changed: %d bytes since the cursor vs %d for all of them%n",
+            incrementalBytes, fullBytes);
+        assertTrue(incrementalBytes * 100 < fullBytes);
+    }
+
+    @Test
+    public void testChangesFeedIsOptional() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+
+        assertNull(api.getChanges(0));
+        // Once we know there is no feed, we stop asking for it.
+        assertNull(api.getChanges(0));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testChangesFeedIsNotMistakenForANoteTitledChanges() {
+        // A server without a changes feed, that takes "changes" for a note's title.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(new Note("changes", "not a feed", 3).toJSON());
+            }
+        });
+
+        assertNull(api.getChanges(42));
+        assertNull(api.getChanges(42));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testPollingReusesOneConnection() {
+        var known = api.getNoteIfChanged(serverNote.title, null);
+        for (int i = 1; i < POLLS; i++) {
+            api.getNoteIfChanged(serverNote.title, known);
+        }
+
+        var stats = api.getMetrics().getStats();
+        System.out.println(stats);
+
+        assertEquals(POLLS, stats.calls);
+        assertEquals(1, stats.connectionsOpened);
+        assertEquals(POLLS, stats.connectionsAcquired);
+        assertEquals(0.99, stats.reuseRate, 1e-9);
+    }
+
+    @Test
+    public void testCacheableResponsesAreServedFromDisk() throws IOException {
+        var cached = new NoteAPI(server.url("/").toString(), cacheDir.newFolder());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                    .setHeader("Cache-Control", "max-age=60")
+                    .setBody(serverNote.toJSON());
+            }
+        });
+
+        assertEquals(serverNote.content, cached.getNote(serverNote.title).content);
+        assertEquals(serverNote.content, cached.getNote(serverNote.title).content);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, cached.getMetrics().getStats().cacheHits);
+    }
+
+    @Test
+    public void testConcurrentFetchesDoNotNeedAThreadEach() {
+        var threads = ManagementFactory.getThreadMXBean();
+        var before = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        var fetches = new ArrayList<CompletableFuture<Note>>();
+        for (int i = 0; i < 200; i++) {
+            fetches.add(api.getNoteAsync(serverNote.title));
+        }
+        CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).join();
+
+        var extraThreads = threads.getPeakThreadCount() - before;
+        System.out.printf("200 concurrent fetches: peak of %d extra threads, server included%n",
+            extraThreads);
+
+        for (var fetch : fetches) assertEquals(serverNote.content, fetch.join().content);
+        // A blocked thread per fetch would be 200 on our side alone.
+        assertTrue(extraThreads < 100);
+    }
+
+    @Test
+    public void testCancellingAFetchCancelsTheRequest() throws InterruptedException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                    .setBody(serverNote.toJSON())
+                    .setHeadersDelay(5, TimeUnit.SECONDS);
+            }
+        });
+
+        var fetch = api.getNoteAsync(serverNote.title);
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        fetch.cancel(true);
+
+        // OkHttp reports the cancelled call as failed.
+        for (int i = 0; i < 100 && api.getMetrics().getStats().failures == 0; i++) Thread.sleep(10);
+        assertTrue(fetch.isCancelled());
+        assertEquals(1, api.getMetrics().getStats().failures);
+    }
+}
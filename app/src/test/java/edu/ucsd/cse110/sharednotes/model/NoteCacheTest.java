@@ -0,0 +1,78 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NoteCacheTest {
+    private static final int KIB = 1024;
+
+    private final NoteCache cache = new NoteCache(64 * KIB);
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        assertNull(cache.get("Groceries"));
+        cache.put(new Note("Groceries", "eggs", 1));
+
+        assertEquals("eggs", cache.get("Groceries").content);
+        assertEquals("eggs", cache.get("Groceries").content);
+
+        var stats = cache.getStats();
+        assertEquals(2, stats.hits);
+        assertEquals(1, stats.misses);
+    }
+
+    @Test
+    public void testIsBoundedByBytesNotEntries() {
+        // Each of these takes up 16 KiB or so, so only a few fit.
+        for (int i = 0; i < 10; i++) {
+            cache.put(new Note("Long " + i, "x".repeat(8 * KIB), 1));
+        }
+
+        var stats = cache.getStats();
+        assertTrue(stats.sizeBytes <= stats.maxBytes);
+        assertEquals(7, stats.evictions);
+        assertNull(cache.get("Long 0"));
+        assertNotNull(cache.get("Long 9"));
+
+        // Whereas hundreds of short notes fit just fine.
+        var small = new NoteCache(64 * KIB);
+        for (int i = 0; i < 300; i++) {
+            small.put(new Note("Short " + i, "eggs", 1));
+        }
+        assertEquals(0, small.getStats().evictions);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGoesFirst() {
+        for (int i = 0; i < 3; i++) {
+            cache.put(new Note("Long " + i, "x".repeat(10 * KIB), 1));
+        }
+        cache.get("Long 0");
+        cache.put(new Note("Long 3", "x".repeat(10 * KIB), 1));
+
+        assertNotNull(cache.get("Long 0"));
+        assertNull(cache.get("Long 1"));
+    }
+
+    @Test
+    public void testHoldsCopies() {
+        var note = new Note("Groceries", "eggs", 1);
+        cache.put(note);
+        note.content = "edited but not saved";
+
+        var cached = cache.get("Groceries");
+        assertEquals("eggs", cached.content);
+        cached.version = 99;
+        assertEquals(1, cache.get("Groceries").version);
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put(new Note("Groceries", "eggs", 1));
+        cache.invalidate("Groceries");
+
+        assertNull(cache.get("Groceries"));
+        assertEquals(0, cache.getStats().sizeBytes);
+    }
+}
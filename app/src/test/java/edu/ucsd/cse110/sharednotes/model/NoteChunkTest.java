@@ -0,0 +1,124 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class NoteChunkTest {
+    private static final int NOTE_SIZE = 1024 * 1024;
+    private static final int EDITS = 200;
+
+    @Test
+    public void testChunksJoinBackIntoTheContent() {
+        var content = randomText(new Random(1), NOTE_SIZE);
+        var chunks = NoteChunk.split(content);
+
+        var joined = new StringBuilder();
+        for (var chunk : chunks) {
+            assertEquals(NoteChunk.HASH_LENGTH, chunk.hash.length());
+            assertTrue(chunk.data.length() <= 32 * 1024);
+            joined.append(chunk.data);
+        }
+        assertEquals(content, joined.toString());
+        assertEquals(chunks.stream().map(c -> c.hash).collect(Collectors.toList()),
+            NoteChunk.hashesOf(NoteChunk.join(chunks)));
+
+        // Chunks of about 8K or so: plenty of them, none tiny except maybe the last.
+        assertTrue(chunks.size() > NOTE_SIZE / (32 * 1024));
+        for (var chunk : chunks.subList(0, chunks.size() - 1)) assertTrue(chunk.data.length() >= 2 * 1024);
+    }
+
+    @Test
+    public void testNeverCutsASurrogatePair() {
+        var content = "\uD83D\uDCDD".repeat(NOTE_SIZE / 2);
+        for (var chunk : NoteChunk.split(content)) {
+            assertFalse(Character.isHighSurrogate(chunk.data.charAt(chunk.data.length() - 1)));
+        }
+    }
+
+    @Test
+    public void testSmallEditsOnlyChangeNearbyChunks() {
+        var random = new Random(2);
+        var content = randomText(random, NOTE_SIZE);
+        var stored = hashes(NoteChunk.split(content));
+
+        long writtenChunked = 0;
+        long changedChunks = 0;
+        for (int i = 0; i < EDITS; i++) {
+            // Typing or deleting a few characters somewhere in the note.
+            var at = random.nextInt(content.length());
+            content = random.nextBoolean()
+                ? content.substring(0, at) + randomText(random, 1 + random.nextInt(20)) + content.substring(at)
+                : content.substring(0, at) + content.substring(Math.min(at + 1 + random.nextInt(20), content.length()));
+
+            var chunks = NoteChunk.split(content);
+            for (var chunk : chunks) {
+                if (stored.contains(chunk.hash)) continue;
+                writtenChunked += chunk.data.length();
+                changedChunks++;
+            }
+            // Plus the row itself, which only holds the list of hashes.
+            writtenChunked += NoteChunk.join(chunks).length();
+            stored = hashes(chunks);
+        }
+
+        long writtenWhole = (long) EDITS * content.length();
+        System.out.printf("%d small edits to a 1 MiB note: %d KiB written as chunks (%.1f new chunks "
+                + "per edit) vs %d KiB rewriting the whole note: %.1fx less%n",
+            EDITS, writtenChunked / 1024, (double) changedChunks / EDITS, writtenWhole / 1024,
+            (double) writtenWhole / writtenChunked);
+        assertTrue(changedChunks <= EDITS * 3L);
+        assertTrue(writtenChunked * 20 < writtenWhole);
+    }
+
+    @Test
+    public void testPackedChunksUnpackToTheSameText() {
+        var words = new String[]{"the", "meeting", "agenda", "action", "item", "follow", "up", "with",
+            "team", "on", "budget", "\u00fcber", "caf\u00e9", "\uD83D\uDCDD", "notes", "and", "next", "steps"};
+        var random = new Random(3);
+        var prose = new StringBuilder();
+        while (prose.length() < NOTE_SIZE) {
+            prose.append(words[random.nextInt(words.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+
+        long plainBytes = 0;
+        long packedBytes = 0;
+        for (var chunk : NoteChunk.split(prose.toString())) {
+            var packed = chunk.packed();
+            assertEquals(NoteChunk.DEFLATE, packed.encoding);
+            assertEquals(chunk.hash, packed.hash);
+            assertEquals(chunk.data, packed.getText());
+            plainBytes += chunk.data.getBytes(StandardCharsets.UTF_8).length;
+            packedBytes += packed.packed.length;
+        }
+        System.out.printf("1 MiB of prose: %d KiB plain, %d KiB packed (%.1fx)%n",
+            plainBytes / 1024, packedBytes / 1024, (double) plainBytes / packedBytes);
+        assertTrue(packedBytes * 3 < plainBytes);
+
+        // Text too short to shrink is stored as it is.
+        var chunk = NoteChunk.of("the end").packed();
+        assertEquals(NoteChunk.PLAIN, chunk.encoding);
+        assertNull(chunk.packed);
+        assertEquals("the end", chunk.getText());
+    }
+
+    private static HashSet<String> hashes(List<NoteChunk> chunks) {
+        var hashes = new HashSet<String>();
+        for (var chunk : chunks) hashes.add(chunk.hash);
+        return hashes;
+    }
+
+    private static String randomText(Random random, int length) {
+        var text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
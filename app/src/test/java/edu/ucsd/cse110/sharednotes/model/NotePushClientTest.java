@@ -0,0 +1,194 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class NotePushClientTest {
+    private static final int EDITS = 50;
+
+    private MockWebServer server;
+    private ScheduledExecutorService scheduler;
+    private NotePushClient client;
+
+    /** What the stand-in server's side of the socket sees. */
+    private final BlockingQueue<WebSocket> serverSockets = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> serverMessages = new LinkedBlockingQueue<>();
+
+    /** What our client's listener sees. */
+    private final BlockingQueue<Note> pushed = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<TextCrdt.Op>> pushedOps = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Boolean> connections = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> subscribed = new LinkedBlockingQueue<>();
+    private final BlockingQueue<TextCrdt.StateVector> pushedSyncs = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+                serverSockets.add(webSocket);
+            }
+
+            @Override
+            public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+                serverMessages.add(text);
+            }
+
+            @Override
+            public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+                webSocket.close(1000, null);
+            }
+        }));
+        server.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        var api = new NoteAPI(server.url("/").toString());
+        client = new NotePushClient(api, scheduler, new NotePushClient.Listener() {
+            @Override
+            public void onNote(Note note) {
+                pushed.add(note);
+            }
+
+            @Override
+            public void onOps(String title, long version, long node, List<TextCrdt.Op> ops) {
+                pushedOps.add(ops);
+            }
+
+            @Override
+            public void onSync(String title, TextCrdt.StateVector theirs) {
+                pushedSyncs.add(theirs);
+            }
+
+            @Override
+            public void onSubscribed(String title) {
+                subscribed.add(title);
+            }
+
+            @Override
+            public void onConnectionChanged(boolean connected) {
+                connections.add(connected);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.unsubscribe("Groceries");
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void testSubscribesAndReceivesPushedNotes() throws InterruptedException {
+        client.subscribe("Groceries");
+
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+        assertTrue(client.isConnected());
+        assertEquals("{\"subscribe\":[\"Groceries\"]}", serverMessages.poll(5, TimeUnit.SECONDS));
+
+        var serverSocket = serverSockets.take();
+        serverSocket.send(new Note("Groceries", "eggs", 2).toJSON());
+
+        var note = pushed.poll(5, TimeUnit.SECONDS);
+        assertNotNull(note);
+        assertEquals("eggs", note.content);
+        assertEquals(2, note.version);
+    }
+
+    @Test
+    public void testExchangesEditsAsOps() throws InterruptedException {
+        assertFalse(client.sendOps("Groceries", 1, 7, List.of()));
+
+        client.subscribe("Groceries");
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+        serverMessages.poll(5, TimeUnit.SECONDS);
+
+        var ours = TextCrdt.fromText(1, "eggs");
+        assertTrue(client.sendOps("Groceries", 2, 7, ours.edit(new TextPatch(4, 0, ", milk"))));
+        var sent = serverMessages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sent);
+        assertTrue(sent.contains("\"ops\""));
+
+        // The server relays them to everyone else, who merges them into their copy.
+        serverSockets.take().send(sent);
+        var ops = pushedOps.poll(5, TimeUnit.SECONDS);
+        assertNotNull(ops);
+        var theirs = TextCrdt.fromText(2, "eggs");
+        theirs.apply(ops);
+        assertEquals("eggs, milk", theirs.getText());
+        assertTrue(pushed.isEmpty());
+    }
+
+    @Test
+    public void testSubscribingStartsCatchingUp() throws InterruptedException {
+        var ours = TextCrdt.fromText(1, "eggs");
+        assertFalse(client.sendSync("Groceries", ours.getStateVector()));
+
+        client.subscribe("Groceries");
+        assertEquals("Groceries", subscribed.poll(5, TimeUnit.SECONDS));
+        serverMessages.poll(5, TimeUnit.SECONDS);
+
+        ours.edit(new TextPatch(4, 0, ", milk"));
+        assertTrue(client.sendSync("Groceries", ours.getStateVector()));
+        var sent = serverMessages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sent);
+
+        // Relayed like ops, to someone who can tell they missed what we typed.
+        serverSockets.take().send(sent);
+        var vector = pushedSyncs.poll(5, TimeUnit.SECONDS);
+        assertNotNull(vector);
+        var theirs = TextCrdt.fromText(2, "eggs");
+        assertTrue(theirs.isBehind(vector));
+        assertTrue(pushedOps.isEmpty());
+    }
+
+    @Test
+    public void testReportsDroppedStream() throws InterruptedException {
+        client.subscribe("Groceries");
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+
+        serverSockets.take().close(1001, "going away");
+
+        assertEquals(Boolean.FALSE, connections.poll(5, TimeUnit.SECONDS));
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void testPushedEditsNeedNoRequests() throws InterruptedException {
+        client.subscribe("Groceries");
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+        var serverSocket = serverSockets.take();
+
+        for (int i = 1; i <= EDITS; i++) {
+            serverSocket.send(new Note("Groceries", "edit " + i, i).toJSON());
+        }
+
+        // Every edit arrives, in order, without polling: the socket's upgrade is the only request.
+        for (int i = 1; i <= EDITS; i++) {
+            var note = pushed.poll(5, TimeUnit.SECONDS);
+            assertNotNull(note);
+            assertEquals(i, note.version);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+}
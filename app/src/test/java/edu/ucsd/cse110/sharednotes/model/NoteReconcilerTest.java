@@ -0,0 +1,224 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class NoteReconcilerTest {
+    /** A library with its hash tree, kept up to date the same way the database does it. */
+    private static class Library implements NoteReconciler.Tree {
+        final Map<String, Note> notes = new HashMap<>();
+        final Map<Integer, Long> hashes = new HashMap<>();
+        final Map<Integer, Map<String, MerkleNode.Entry>> buckets = new HashMap<>();
+
+        synchronized void put(Note note) {
+            remove(note.title);
+            notes.put(note.title, note);
+            var digest = MerkleNode.digestOf(note.title, note.version, note.content);
+            var bucket = MerkleNode.bucketOf(note.title);
+            buckets.computeIfAbsent(bucket, b -> new HashMap<>())
+                .put(note.title, new MerkleNode.Entry(note.title, note.version, note.node, digest));
+            for (var id : MerkleNode.pathTo(bucket)) hashes.merge(id, digest, (a, b) -> a ^ b);
+        }
+
+        synchronized void remove(String title) {
+            if (notes.remove(title) == null) return;
+            var bucket = MerkleNode.bucketOf(title);
+            var entry = buckets.get(bucket).remove(title);
+            for (var id : MerkleNode.pathTo(bucket)) hashes.merge(id, entry.digest, (a, b) -> a ^ b);
+        }
+
+        @Override
+        public synchronized List<Long> getHashes(List<Integer> ids) {
+            var list = new ArrayList<Long>(ids.size());
+            for (var id : ids) list.add(hashes.getOrDefault(id, 0L));
+            return list;
+        }
+
+        @Override
+        public synchronized List<MerkleNode.Entry> getEntries(List<Integer> buckets) {
+            var entries = new ArrayList<MerkleNode.Entry>();
+            for (var bucket : buckets) entries.addAll(this.buckets.getOrDefault(bucket, Map.of()).values());
+            return entries;
+        }
+    }
+
+    private MockWebServer server;
+    private NoteAPI api;
+    private final Library ours = new Library();
+    private final Library theirs = new Library();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                receivedBytes.addAndGet(request.getBodySize());
+                JsonObject json;
+                try {
+                    var bytes = request.getBody().readByteArray();
+                    if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                        bytes = new GZIPInputStream(new ByteArrayInputStream(bytes)).readAllBytes();
+                    }
+                    json = JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8)).getAsJsonObject();
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+                String body;
+                switch (request.getPath()) {
+                    case "/notes/tree": {
+                        var ids = new ArrayList<Integer>();
+                        json.getAsJsonArray("nodes").forEach(id -> ids.add(id.getAsInt()));
+                        var response = new JsonObject();
+                        response.add("hashes", new Gson().toJsonTree(theirs.getHashes(ids)));
+                        body = response.toString();
+                        break;
+                    }
+                    case "/notes/tree/entries": {
+                        var buckets = new ArrayList<Integer>();
+                        json.getAsJsonArray("buckets").forEach(bucket -> buckets.add(bucket.getAsInt()));
+                        body = new Gson().toJson(theirs.getEntries(buckets));
+                        break;
+                    }
+                    case "/notes/batch": {
+                        var notes = new ArrayList<Note>();
+                        json.getAsJsonArray("titles").forEach(title -> {
+                            var note = theirs.notes.get(title.getAsString());
+                            if (note != null) notes.add(note);
+                        });
+                        body = Note.listToJSON(notes);
+                        break;
+                    }
+                    default:
+                        return new MockResponse().setResponseCode(404);
+                }
+                sentBytes.addAndGet(body.length());
+                return new MockResponse().setBody(body);
+            }
+        });
+        server.start();
+        api = new NoteAPI(server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testFindsOnlyTheNotesThatDiffer() {
+        var random = new Random(0);
+        for (int i = 0; i < 10_000; i++) {
+            var note = new Note("Note " + i, "content of note " + i + " ".repeat(random.nextInt(200)), 1);
+            ours.put(note);
+            theirs.put(note);
+        }
+
+        // 1% of the notes differ, in every way they can.
+        var expected = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            var title = "Note " + random.nextInt(10_000);
+            switch (i % 4) {
+                case 0: theirs.put(new Note(title, "edited elsewhere", 2)); break;
+                case 1: ours.put(new Note(title, "edited here", 2)); break;
+                case 2: theirs.put(new Note("New " + i, "only on the server", 1)); title = "New " + i; break;
+                default: ours.put(new Note("New " + i, "only here", 1)); title = "New " + i; break;
+            }
+            expected.add(title);
+        }
+
+        var differences = new NoteReconciler(api, ours, Runnable::run).findDifferences().join();
+        var treeRequests = server.getRequestCount();
+        var treeBytes = sentBytes.get() + receivedBytes.get();
+
+        Set<String> found = new HashSet<>();
+        for (var difference : differences) {
+            found.add(difference.title);
+            var theirsNewer = theirs.notes.containsKey(difference.title)
+                && theirs.notes.get(difference.title).isNewerThan(ours.notes.get(difference.title));
+            assertEquals(theirsNewer, difference.isTheirsNewer());
+        }
+        assertEquals(expected, found);
+        assertEquals(MerkleNode.DEPTH + 2, treeRequests);
+
+        // Without the tree, finding out means fetching every note.
+        sentBytes.set(0);
+        receivedBytes.set(0);
+        assertEquals(theirs.notes.size(), api.getNotes(new ArrayList<>(theirs.notes.keySet())).size());
+        var fetchAllBytes = sentBytes.get() + receivedBytes.get();
+
+        System.out.printf("10k notes, 1%% differing: %d requests / %d KiB comparing trees, "
+                + "vs %d KiB fetching every note%n",
+            treeRequests, treeBytes / 1024, fetchAllBytes / 1024);
+        assertTrue(treeBytes * 5 < fetchAllBytes);
+    }
+
+    @Test
+    public void testSameLibrariesTakeOneRoundTrip() {
+        for (int i = 0; i < 1_000; i++) {
+            var note = new Note("Note " + i, "content " + i, i);
+            ours.put(note);
+            theirs.put(note);
+        }
+        // Same notes, saved in a different order: still the same tree.
+        ours.remove("Note 3");
+        ours.put(new Note("Note 3", "content 3", 3));
+
+        assertTrue(new NoteReconciler(api, ours, Runnable::run).findDifferences().join().isEmpty());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testServerWithoutTree() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+
+        assertNull(new NoteReconciler(api, ours, Runnable::run).findDifferences().join());
+    }
+
+    @Test
+    public void testTreeIsNotMistakenForANoteTitledTree() {
+        // A server without a hash tree, that takes "tree" for a note's title.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(new Note("tree", "not a hash tree", 3).toJSON());
+            }
+        });
+
+        assertNull(new NoteReconciler(api, ours, Runnable::run).findDifferences().join());
+        assertNull(new NoteReconciler(api, ours, Runnable::run).findDifferences().join());
+        assertEquals(1, server.getRequestCount());
+    }
+}
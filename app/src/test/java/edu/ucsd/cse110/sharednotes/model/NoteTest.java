@@ -0,0 +1,132 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+public class NoteTest {
+    private static final int ITERATIONS = 10_000;
+    private static final int BATCH_ITERATIONS = 500;
+
+    /** Keeps the benchmarked work from being optimized away. */
+    private static volatile Object sink;
+
+    @Test
+    public void testRoundTrip() {
+        var note = new Note("Groceries", "eggs \"and\" milk\n", 42);
+
+        var parsed = Note.fromJSON(note.toJSON());
+
+        assertEquals(note.title, parsed.title);
+        assertEquals(note.content, parsed.content);
+        assertEquals(note.version, parsed.version);
+    }
+
+    @Test
+    public void testUnknownFieldsAreSkippedAndMissingOnesLeftEmpty() {
+        var note = Note.fromJSON("{\"title\":\"Chores\",\"updated_at\":{\"seconds\":1},\"content\":null}");
+
+        assertEquals("Chores", note.title);
+        assertNull(note.content);
+        assertEquals(0, note.version);
+
+        // What the server sends for a note that doesn't exist.
+        assertNull(Note.fromJSON("{\"detail\":\"Note not found.\"}").title);
+    }
+
+    @Test
+    public void testListsUseTheSameFormat() {
+        var notes = List.of(new Note("a", "1", 1), new Note("b", "2", 2));
+
+        var json = Note.listToJSON(notes);
+        var parsed = Note.listFromJSON(new InputStreamReader(
+            new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+        assertEquals("[" + notes.get(0).toJSON() + "," + notes.get(1).toJSON() + "]", json);
+        assertEquals(2, parsed.size());
+        assertEquals("b", parsed.get(1).title);
+        assertEquals(2, parsed.get(1).version);
+    }
+
+    @Test
+    public void testSharedAdapterIsCheaperThanFreshGson() {
+        var note = new Note("Standup", "yesterday: shipped the thing. ".repeat(128), 7);
+        var json = note.toJSON();
+
+        // Before: a new Gson per call, reading the whole response body into a String first.
+        var parseBefore = measure("parse, fresh Gson", ITERATIONS, () ->
+            new Gson().fromJson(body(json).string(), Note.class));
+        var parseAfter = measure("parse, shared", ITERATIONS, () ->
+            Note.fromJSON(body(json).string()));
+        measure("parse, shared + streamed", ITERATIONS, () ->
+            Note.fromJSON(body(json).charStream()));
+
+        var writeBefore = measure("serialize, fresh Gson", ITERATIONS, () -> new Gson().toJson(note));
+        var writeAfter = measure("serialize, shared", ITERATIONS, note::toJSON);
+
+        assertTrue(parseAfter < parseBefore);
+        assertTrue(writeAfter < writeBefore);
+    }
+
+    @Test
+    public void testStreamingLargeBodiesSkipsTheStringCopy() {
+        var notes = new ArrayList<Note>();
+        for (int i = 0; i < 50; i++) {
+            notes.add(new Note("Note " + i, "yesterday: shipped the thing. ".repeat(128), i));
+        }
+        var json = Note.listToJSON(notes);
+
+        var buffered = measure("parse batch, buffered", BATCH_ITERATIONS, () ->
+            Note.listFromJSON(body(json).string()));
+        var streamed = measure("parse batch, streamed", BATCH_ITERATIONS, () ->
+            Note.listFromJSON(body(json).charStream()));
+
+        assertTrue(streamed < buffered);
+    }
+
+    private static ResponseBody body(String json) {
+        return ResponseBody.create(json, MediaType.get("application/json; charset=utf-8"));
+    }
+
+    /**
+     * Run {@code op} a while to warm up, then time it and count what it allocates.
+     *
+     * @return the bytes allocated per call.
+     */
+    private static double measure(String name, int iterations, Callable<Object> op) {
+        try {
+            return measureOrThrow(name, iterations, op);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static double measureOrThrow(String name, int iterations, Callable<Object> op) throws Exception {
+        for (int i = 0; i < iterations / 5; i++) sink = op.call();
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+        var allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        var start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink = op.call();
+        var nsPerOp = (double) (System.nanoTime() - start) / iterations;
+        var bytesPerOp = (double) (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / iterations;
+
+        System.out.printf("%-28s %8.0f ns/op %10.0f B/op%n", name, nsPerOp, bytesPerOp);
+        return bytesPerOp;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class NoteUploaderTest {
+    private static final int SAVES = 100;
+    private static final long DEBOUNCE_MS = 50;
+
+    /** An in-memory stand-in for the Room outbox table. */
+    static class FakeOutboxDao extends OutboxDao {
+        final Map<String, PendingUpload> rows = new ConcurrentHashMap<>();
+
+        @Override
+        public long upsert(PendingUpload upload) {
+            rows.put(upload.title, upload);
+            return 0;
+        }
+
+        @Override
+        public PendingUpload find(String title) {
+            return rows.get(title);
+        }
+
+        @Override
+        public void upsertNewer(PendingUpload upload) {
+            rows.merge(upload.title, upload, (queued, newer) -> queued.version <= newer.version ? newer : queued);
+        }
+
+        @Override
+        public List<PendingUpload> getDue(long now, int limit) {
+            return rows.values().stream()
+                .filter(upload -> upload.nextAttemptAt <= now)
+                .sorted(Comparator.comparingLong(upload -> upload.version))
+                .limit(limit)
+                .collect(Collectors.toList());
+        }
+
+        @Override
+        public Long getNextAttemptAt() {
+            return rows.values().stream().map(upload -> upload.nextAttemptAt).min(Long::compare).orElse(null);
+        }
+
+        @Override
+        public int remove(String title, long version) {
+            var row = rows.get(title);
+            return row != null && row.version == version && rows.remove(title, row) ? 1 : 0;
+        }
+
+        @Override
+        public int markFailed(String title, long version, long nextAttemptAt) {
+            var row = rows.get(title);
+            if (row == null || row.version != version) return 0;
+            rows.put(title, new PendingUpload(title, row.content, version, row.node,
+                row.attempts + 1, nextAttemptAt, row.enqueuedAt));
+            return 1;
+        }
+
+        @Override
+        public int makeAllDue(long now) {
+            rows.replaceAll((title, row) -> new PendingUpload(title, row.content, row.version, row.node,
+                row.attempts, Math.min(row.nextAttemptAt, now), row.enqueuedAt));
+            return rows.size();
+        }
+
+        @Override
+        public int count() {
+            return rows.size();
+        }
+
+        @Override
+        public LiveData<Integer> getDepth() {
+            return new MutableLiveData<>(rows.size());
+        }
+    }
+
+    private MockWebServer server;
+    private ScheduledExecutorService scheduler;
+    private NoteUploader uploader;
+    private final FakeOutboxDao outbox = new FakeOutboxDao();
+
+    private final List<Note> confirmed = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicBoolean batchesFail = new AtomicBoolean();
+    private CountDownLatch lastConfirmed;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (failuresLeft.getAndDecrement() > 0) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                if (batchesFail.get() && "/notes/batch".equals(request.getPath())) {
+                    return new MockResponse().setResponseCode(422);
+                }
+                // A slowish server, so saves keep arriving while an upload is in flight.
+                Thread.sleep(20);
+                return new MockResponse().setBody("{}");
+            }
+        });
+        server.start();
+
+        scheduler = Executors.newScheduledThreadPool(2);
+        var api = new NoteAPI(server.url("/").toString());
+        uploader = new NoteUploader(api, outbox, scheduler, DEBOUNCE_MS, note -> {
+            confirmed.add(note);
+            if (note.version == SAVES) lastConfirmed.countDown();
+        });
+        lastConfirmed = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void testBurstOfSavesIsCoalesced() throws InterruptedException {
+        var note = new Note("Standup", "", 0);
+        var start = System.nanoTime();
+        for (int i = 1; i <= SAVES; i++) {
+            note.content = "edit " + i;
+            note.version = i;
+            uploader.enqueue(note);
+        }
+
+        assertTrue(lastConfirmed.await(5, TimeUnit.SECONDS));
+        var elapsedMs = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%d saves -> %d requests in %.0f ms%n",
+            SAVES, server.getRequestCount(), elapsedMs);
+
+        assertEquals(SAVES, uploader.getSaveCount());
+        assertEquals(1, uploader.getUploadCount());
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, confirmed.size());
+        assertEquals("edit " + SAVES, confirmed.get(0).content);
+        assertEquals(0, outbox.count());
+    }
+
+    @Test
+    public void testSavesDuringUploadGoOutOnceItFinishes() throws InterruptedException {
+        var note = new Note("Standup", "", 0);
+        for (int i = 1; i <= SAVES; i++) {
+            note.content = "edit " + i;
+            note.version = i;
+            uploader.enqueue(note);
+            Thread.sleep(1);
+        }
+
+        assertTrue(lastConfirmed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(DEBOUNCE_MS * 2);
+
+        // Never more than one upload in flight, and each confirmation is for a distinct version.
+        assertTrue(server.getRequestCount() < SAVES / 10);
+        assertEquals(server.getRequestCount(), confirmed.size());
+        assertEquals(confirmed.size(), confirmed.stream().mapToLong(n -> n.version).distinct().count());
+        assertEquals(SAVES, confirmed.get(confirmed.size() - 1).version);
+    }
+
+    @Test
+    public void testFailedUploadIsRetried() throws InterruptedException {
+        failuresLeft.set(2);
+
+        uploader.enqueue(new Note("Standup", "done", SAVES));
+
+        assertTrue(lastConfirmed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(DEBOUNCE_MS);
+        assertEquals(3, server.getRequestCount());
+        assertEquals(1, confirmed.size());
+        assertEquals(0, outbox.count());
+        assertTrue(uploader.getLastRecoveryMillis() > 0);
+    }
+
+    @Test
+    public void testLeftoverUploadsDrainInBatchesOnStart() throws InterruptedException {
+        // Saves that never made it out, e.g. because the app was killed while offline.
+        for (int i = 1; i <= SAVES; i++) {
+            outbox.upsert(PendingUpload.of(new Note("Note " + i, "content", i), 0));
+        }
+
+        uploader.start();
+
+        assertTrue(lastConfirmed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(DEBOUNCE_MS);
+        assertEquals(SAVES, confirmed.size());
+        assertEquals(0, outbox.count());
+        // The stand-in server accepts the bulk route, so 50 notes go out per request.
+        assertEquals(2, server.getRequestCount());
+        for (int i = 0; i < SAVES; i++) assertEquals(i + 1, confirmed.get(i).version);
+    }
+
+    @Test
+    public void testBatchesTheServerWontTakeGoOutOneByOne() throws InterruptedException {
+        batchesFail.set(true);
+        for (int i = 1; i <= SAVES; i++) {
+            outbox.upsert(PendingUpload.of(new Note("Note " + i, "content", i), 0));
+        }
+
+        uploader.start();
+
+        assertTrue(lastConfirmed.await(10, TimeUnit.SECONDS));
+        Thread.sleep(DEBOUNCE_MS);
+        assertEquals(SAVES, confirmed.size());
+        assertEquals(0, outbox.count());
+        // The first batch was tried, then every note went out on its own, and only once.
+        assertEquals(1 + SAVES, server.getRequestCount());
+    }
+}
@@ -0,0 +1,60 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PollBackoffTest {
+    private long now = 0;
+    private final PollBackoff backoff = new PollBackoff(new Random(110), () -> now);
+
+    @Test
+    public void testBacksOffWhileUnchanged() {
+        long cap = PollBackoff.MIN_DELAY_MS;
+        for (int i = 0; i < 10; i++) {
+            cap = Math.min(cap * 2, PollBackoff.MAX_IDLE_DELAY_MS);
+            var delay = backoff.onUnchanged();
+            assertTrue(delay >= cap / 2);
+            assertTrue(delay <= cap);
+        }
+        assertEquals(PollBackoff.MAX_IDLE_DELAY_MS, backoff.getStats().delayMs);
+    }
+
+    @Test
+    public void testChangesAndResetsGoBackToFastCadence() {
+        for (int i = 0; i < 5; i++) backoff.onUnchanged();
+        assertTrue(backoff.onChanged() <= PollBackoff.MIN_DELAY_MS);
+
+        for (int i = 0; i < 5; i++) backoff.onUnchanged();
+        assertTrue(backoff.reset() <= PollBackoff.MIN_DELAY_MS);
+        assertEquals(PollBackoff.MIN_DELAY_MS, backoff.getStats().delayMs);
+    }
+
+    @Test
+    public void testErrorsBackOffFurtherThanIdle() {
+        for (int i = 0; i < 20; i++) backoff.onError();
+
+        var stats = backoff.getStats();
+        assertEquals(PollBackoff.MAX_ERROR_DELAY_MS, stats.delayMs);
+        assertEquals(20, stats.errors);
+    }
+
+    @Test
+    public void testIdleNoteCostsFarFewerRequests() {
+        // Simulate an hour of polling a note that never changes.
+        var hour = 60 * 60 * 1000L;
+        while (now < hour) {
+            now += backoff.onUnchanged();
+        }
+
+        var stats = backoff.getStats();
+        var fixedRatePolls = hour / PollBackoff.MIN_DELAY_MS;
+        System.out.printf("idle hour: %d polls (%.2f/min) vs %d at a fixed 3 s%n",
+            stats.polls, stats.pollsPerMinute, fixedRatePolls);
+
+        assertTrue(stats.polls * 10 < fixedRatePolls);
+        assertEquals(0, stats.changes);
+    }
+}
@@ -0,0 +1,284 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TextCrdtTest {
+    private static final int DOCUMENT_SIZE = 100 * 1024;
+    private static final int EDITS_PER_EDITOR = 300;
+
+    @Test
+    public void testConcurrentInsertsAtTheSameSpotMergeTheSameWay() {
+        var alice = TextCrdt.fromText(1, "ab");
+        var bob = TextCrdt.fromText(2, "ab");
+
+        var fromAlice = alice.edit(new TextPatch(1, 0, "X"));
+        var fromBob = bob.edit(new TextPatch(1, 0, "Y"));
+        alice.apply(fromBob);
+        bob.apply(fromAlice);
+
+        assertEquals(alice.getText(), bob.getText());
+        assertEquals(4, alice.length());
+        assertTrue(alice.getText().startsWith("a"));
+        assertTrue(alice.getText().endsWith("b"));
+    }
+
+    @Test
+    public void testTypingInsideADeletedSpanKeepsTheTyping() {
+        var alice = TextCrdt.fromText(1, "one two three");
+        var bob = TextCrdt.fromText(2, "one two three");
+
+        // Alice deletes "two " while Bob types into the middle of it.
+        var fromAlice = alice.edit(new TextPatch(4, 4, ""));
+        var fromBob = bob.edit(new TextPatch(5, 0, "!!"));
+        alice.apply(fromBob);
+        bob.apply(fromAlice);
+
+        assertEquals("one !!three", alice.getText());
+        assertEquals(alice.getText(), bob.getText());
+    }
+
+    @Test
+    public void testOpsThatArriveEarlyAreHeldBack() {
+        var alice = new TextCrdt(1);
+        var bob = new TextCrdt(2);
+
+        var first = alice.edit(new TextPatch(0, 0, "hello"));
+        var second = alice.edit(new TextPatch(5, 0, " world"));
+        var third = alice.edit(new TextPatch(0, 1, ""));
+
+        assertFalse(bob.apply(third));
+        assertFalse(bob.apply(second));
+        assertEquals(2, bob.getPendingCount());
+        assertTrue(bob.apply(first));
+
+        assertEquals(0, bob.getPendingCount());
+        assertEquals("ello world", bob.getText());
+    }
+
+    @Test
+    public void testOpsSeenTwiceAreIgnored() {
+        var alice = new TextCrdt(1);
+        var bob = new TextCrdt(2);
+
+        var insert = alice.edit(new TextPatch(0, 0, "hello"));
+        var delete = alice.edit(new TextPatch(0, 2, ""));
+        assertTrue(bob.apply(insert));
+        assertTrue(bob.apply(delete));
+        assertFalse(bob.apply(insert));
+        assertFalse(bob.apply(delete));
+
+        assertEquals("llo", bob.getText());
+        assertEquals(3, bob.length());
+    }
+
+    @Test
+    public void testOpsSurviveTheWire() {
+        var alice = TextCrdt.fromText(1, "groceries");
+        var bob = TextCrdt.fromText(2, "groceries");
+
+        var ops = alice.edit(new TextPatch(0, 9, "chores"));
+        var json = TextCrdt.Op.listToJSON(ops);
+        bob.apply(TextCrdt.Op.listFromJSON(json));
+
+        assertEquals("chores", bob.getText());
+    }
+
+    @Test
+    public void testStateSurvivesEncoding() {
+        var alice = TextCrdt.fromText(TextCrdt.newSite(), "the quick fox");
+        var bob = alice.fork(TextCrdt.newSite());
+        alice.edit(new TextPatch(4, 5, "slow"));
+        var early = bob.edit(new TextPatch(13, 0, " jumps"));
+        var late = bob.edit(new TextPatch(19, 0, " high"));
+        alice.apply(late);
+
+        var text = alice.getText();
+        var restored = TextCrdt.restore(alice.encode(), List.of(), TextCrdt.hashOf(text), text);
+        assertEquals(alice.getSite(), restored.getSite());
+        assertEquals(alice.getText(), restored.getText());
+        assertEquals(1, restored.getPendingCount());
+
+        // Still merges the same way after a restart.
+        alice.apply(early);
+        restored.apply(early);
+        assertEquals("the slow fox jumps high", restored.getText());
+        assertEquals(alice.getText(), restored.getText());
+
+        // Keeps its clock too, so new edits don't reuse ids (which would make them look seen).
+        alice.apply(restored.edit(new TextPatch(0, 0, ">")));
+        assertEquals(">the slow fox jumps high", alice.getText());
+    }
+
+    @Test
+    public void testHistoryIsRestoredFromItsLogAndText() {
+        var alice = TextCrdt.fromText(1, "the quick fox");
+        var bob = alice.fork(2);
+        var state = alice.encode();
+        var log = List.of(alice.edit(new TextPatch(4, 5, "slow")), alice.edit(new TextPatch(0, 0, ">")));
+        var text = alice.getText();
+
+        var restored = TextCrdt.restore(state, log, TextCrdt.hashOf(text), text);
+        assertEquals(">the slow fox", restored.getText());
+        assertFalse(state.contains("quick"));
+
+        restored.apply(bob.edit(new TextPatch(13, 0, " jumps")));
+        assertEquals(">the slow fox jumps", restored.getText());
+
+        // A note changed some other way doesn't fit its history anymore.
+        assertNull(TextCrdt.restore(state, log, TextCrdt.hashOf(text), ">the fox"));
+    }
+
+    @Test
+    public void testDeletedTextLeavesLittleBehind() {
+        var crdt = new TextCrdt(1);
+        crdt.edit(new TextPatch(0, 0, "x".repeat(10_000)));
+        for (int i = 0; i < 9_999; i++) crdt.edit(new TextPatch(0, 1, ""));
+
+        assertEquals("x", crdt.getText());
+        assertTrue(crdt.encode().length() < 500);
+    }
+
+    @Test
+    public void testPendingOpsAreBounded() {
+        var alice = new TextCrdt(1);
+        var bob = new TextCrdt(2);
+
+        // Everything Alice types builds on an op Bob never gets.
+        alice.edit(new TextPatch(0, 0, "x"));
+        for (int i = 0; i < TextCrdt.MAX_PENDING + 10; i++) {
+            bob.apply(alice.edit(new TextPatch(1, 0, "y")));
+        }
+
+        assertEquals(TextCrdt.MAX_PENDING, bob.getPendingCount());
+    }
+
+    @Test
+    public void testStateVectorsCatchUpOnLostOps() {
+        var alice = TextCrdt.fromText(1, "shopping list");
+        var bob = TextCrdt.fromText(2, "shopping list");
+
+        // Both edit while every op between them is lost, including some typed and deleted again.
+        alice.edit(new TextPatch(13, 0, ": eggs"));
+        alice.edit(new TextPatch(0, 0, "new "));
+        alice.edit(new TextPatch(0, 4, ""));
+        bob.edit(new TextPatch(0, 8, "grocery"));
+        assertTrue(bob.isBehind(alice.getStateVector()));
+
+        bob.apply(alice.missingFrom(bob.getStateVector()));
+        alice.apply(bob.missingFrom(alice.getStateVector()));
+
+        assertEquals("grocery list: eggs", alice.getText());
+        assertEquals(alice.getText(), bob.getText());
+        assertFalse(alice.isBehind(bob.getStateVector()));
+        assertEquals(List.of(), alice.missingFrom(bob.getStateVector()));
+
+        // A history that starts from another text has nothing to offer.
+        assertEquals(List.of(), TextCrdt.fromText(3, "other").missingFrom(alice.getStateVector()));
+    }
+
+    @Test
+    public void testSavesKeepEditsTheEditorDidNotShowYet() {
+        var alice = TextCrdt.fromText(1, "eggs, milk");
+        var bob = TextCrdt.fromText(2, "eggs, milk");
+
+        // Bob's edit is merged in, but Alice's editor still shows what she started from.
+        alice.apply(bob.edit(new TextPatch(0, 0, "bread, ")));
+        alice.setText("eggs, milk, jam", "eggs, milk");
+        assertEquals("bread, eggs, milk, jam", alice.getText());
+
+        // Where both changed the same words, the save wins.
+        alice.apply(bob.edit(new TextPatch(7, 4, "EGGS")));
+        alice.setText("bread, ham, milk, jam", "bread, eggs, milk, jam");
+        assertEquals("bread, ham, milk, jam", alice.getText());
+    }
+
+    @Test
+    public void testEditorsConvergeOnALargeDocument() {
+        var base = randomText(new Random(0), DOCUMENT_SIZE);
+        for (int editors : new int[]{2, 5, 10}) {
+            var random = new Random(editors);
+            var replicas = new ArrayList<TextCrdt>();
+            var inboxes = new ArrayList<List<List<TextCrdt.Op>>>();
+            for (int i = 0; i < editors; i++) {
+                replicas.add(TextCrdt.fromText(i + 1, base));
+                inboxes.add(new ArrayList<>());
+            }
+
+            long localNanos = 0;
+            long remoteNanos = 0;
+            long opBytes = 0;
+            int edits = 0;
+            int merged = 0;
+            for (int round = 0; round < EDITS_PER_EDITOR; round++) {
+                for (int i = 0; i < editors; i++) {
+                    var replica = replicas.get(i);
+                    var patch = randomEdit(random, replica.length());
+
+                    var start = System.nanoTime();
+                    var ops = replica.edit(patch);
+                    localNanos += System.nanoTime() - start;
+                    edits++;
+                    opBytes += TextCrdt.Op.listToJSON(ops).length();
+
+                    for (int j = 0; j < editors; j++) {
+                        if (j != i) inboxes.get(j).add(ops);
+                    }
+                }
+
+                // Deliver some of what everyone sent, in no particular order.
+                for (int j = 0; j < editors; j++) {
+                    var inbox = inboxes.get(j);
+                    Collections.shuffle(inbox, random);
+                    var deliver = inbox.subList(0, random.nextInt(inbox.size() + 1));
+                    var start = System.nanoTime();
+                    for (var ops : deliver) replicas.get(j).apply(ops);
+                    remoteNanos += System.nanoTime() - start;
+                    merged += deliver.size();
+                    deliver.clear();
+                }
+            }
+
+            // Then everything else.
+            for (int j = 0; j < editors; j++) {
+                var start = System.nanoTime();
+                for (var ops : inboxes.get(j)) replicas.get(j).apply(ops);
+                remoteNanos += System.nanoTime() - start;
+                merged += inboxes.get(j).size();
+            }
+
+            var text = replicas.get(0).getText();
+            for (var replica : replicas) {
+                assertEquals(0, replica.getPendingCount());
+                assertEquals(text, replica.getText());
+            }
+
+            System.out.printf("%d editors on %d KiB: %.0f local edits/s, %.0f merges/s, "
+                    + "%d bytes of ops per edit vs %d KiB of note%n",
+                editors, DOCUMENT_SIZE / 1024, edits / (localNanos / 1e9), merged / (remoteNanos / 1e9),
+                opBytes / edits, text.length() / 1024);
+            assertTrue(opBytes / edits < 200);
+        }
+    }
+
+    private static TextPatch randomEdit(Random random, int length) {
+        var offset = random.nextInt(length + 1);
+        var delete = random.nextInt(4) == 0 ? Math.min(random.nextInt(20), length - offset) : 0;
+        var insert = delete > 0 && random.nextBoolean() ? "" : randomText(random, 1 + random.nextInt(10));
+        return new TextPatch(offset, delete, insert);
+    }
+
+    private static String randomText(Random random, int length) {
+        var text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(random.nextInt(8) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
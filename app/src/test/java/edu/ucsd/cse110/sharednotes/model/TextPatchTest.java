@@ -0,0 +1,32 @@
+package edu.ucsd.cse110.sharednotes.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TextPatchTest {
+    @Test
+    public void testDiffsAgainstAnyText() {
+        var shown = new StringBuilder("buy eggs and milk");
+        var patch = TextPatch.between(shown, "buy eggs, bread and milk");
+
+        assertEquals(8, patch.offset);
+        assertEquals(0, patch.delete);
+        assertEquals(", bread", patch.insert);
+        assertTrue(TextPatch.between(shown, "buy eggs and milk").isEmpty());
+    }
+
+    @Test
+    public void testPositionsMoveWithTheText() {
+        // "buy eggs and milk" -> "buy bread and milk"
+        var patch = TextPatch.between("buy eggs and milk", "buy bread and milk");
+
+        assertEquals(2, patch.shift(2));
+        assertEquals(4, patch.shift(4));
+        // Inside the replaced word: after its replacement.
+        assertEquals(9, patch.shift(6));
+        // After it: moved along by the difference in length.
+        assertEquals(14, patch.shift(13));
+        assertEquals(18, patch.shift(17));
+    }
+}
@@ -0,0 +1,138 @@
+package edu.ucsd.cse110.sharednotes.view;
+
+import static org.junit.Assert.*;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ucsd.cse110.sharednotes.model.NotePreview;
+
+public class NotePreviewDiffTest {
+    private static final int NOTES = 1000;
+
+    /** Records what the adapter would be told, i.e. which rows it would rebind. */
+    static class Updates implements ListUpdateCallback {
+        final List<Object> changePayloads = new ArrayList<>();
+        int changed, inserted, removed, moved;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            changed += count;
+            changePayloads.add(payload);
+        }
+    }
+
+    private static List<NotePreview> notes() {
+        var notes = new ArrayList<NotePreview>(NOTES);
+        for (int i = 0; i < NOTES; i++) {
+            notes.add(new NotePreview(String.format("Note %04d", i), "content " + i, 1));
+        }
+        return notes;
+    }
+
+    private static Updates diff(List<NotePreview> before, List<NotePreview> after) {
+        var callback = new NotePreviewDiff();
+        var result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return after.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return callback.areItemsTheSame(before.get(oldPosition), after.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return callback.areContentsTheSame(before.get(oldPosition), after.get(newPosition));
+            }
+
+            @Override
+            public Object getChangePayload(int oldPosition, int newPosition) {
+                return callback.getChangePayload(before.get(oldPosition), after.get(newPosition));
+            }
+        });
+
+        var updates = new Updates();
+        result.dispatchUpdatesTo(updates);
+        return updates;
+    }
+
+    @Test
+    public void testOneChangedNoteRebindsOneRow() {
+        var before = notes();
+        var after = notes();
+        var edited = new NotePreview("Note 0500", "edited", 2);
+        after.set(500, edited);
+
+        var updates = diff(before, after);
+        System.out.printf("1 of %d notes changed: %d row(s) rebound, was all of them%n",
+            NOTES, updates.changed);
+
+        assertEquals(1, updates.changed);
+        assertEquals(0, updates.inserted + updates.removed + updates.moved);
+        // The row gets the new preview as a payload, so it can skip a full rebind.
+        assertSame(edited, updates.changePayloads.get(0));
+    }
+
+    @Test
+    public void testReloadWithNothingNewRebindsNothing() {
+        var updates = diff(notes(), notes());
+
+        assertEquals(0, updates.changed + updates.inserted + updates.removed + updates.moved);
+    }
+
+    @Test
+    public void testManyNotesSyncingAtOnce() {
+        var before = notes();
+        var after = notes();
+        for (int i = 0; i < NOTES; i += 10) {
+            var note = after.get(i);
+            after.set(i, new NotePreview(note.title, note.preview, note.version + 1));
+        }
+
+        var updates = diff(before, after);
+
+        assertEquals(NOTES / 10, updates.changed);
+        assertEquals(0, updates.inserted + updates.removed + updates.moved);
+    }
+
+    @Test
+    public void testNewNoteIsInsertedWithoutRebindingOthers() {
+        var before = notes();
+        var after = notes();
+        after.add(250, new NotePreview("Note 0249a", "", 1));
+
+        var updates = diff(before, after);
+
+        assertEquals(1, updates.inserted);
+        assertEquals(0, updates.changed + updates.removed);
+    }
+}